@@ -15,13 +15,44 @@ import static io.glutamate.util.Collections.map;
 import static java.lang.System.getenv;
 import static java.util.Optional.ofNullable;
 
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import de.dentrassi.flow.ComponentInstance;
 import de.dentrassi.flow.Flow;
 import de.dentrassi.flow.FlowContext;
 import de.dentrassi.flow.spi.type.ClassLoaderComponentFactory;
 
+/**
+ * Replays the dataset to Eclipse Kapua, with a flow per group of devices.
+ * <p>
+ * Each record is converted and mapped once per flow, and all publishers of
+ * the flow share the resulting map. The remaining per publisher work is done
+ * by {@code KapuaTopic}, encoding the map into the Kura payload of its device.
+ * This happens inside flow-component-kapua, so the {@code RecordEncoder} of
+ * the dataset simulator, which creates the JSON payload of the Hono MQTT
+ * adapter, cannot replace it.
+ * </p>
+ * <p>
+ * For the same reason, publishers remain flow components. The compact engine
+ * of the dataset simulator speaks the protocol of the Hono MQTT adapter,
+ * while Kapua requires its own session handling, like the birth certificate
+ * published by {@code KapuaApplication}, and Kura payloads on account scoped
+ * topics.
+ * </p>
+ */
 public class KapuaApplication {
 
+    private static final Logger logger = LoggerFactory.getLogger(KapuaApplication.class);
+
     public static void main(final String[] args) throws Exception {
 
         final String datasetFile = getenv("DATASET_FILE");
@@ -30,29 +61,70 @@ public class KapuaApplication {
         final String deviceIdPrefix = getenv().getOrDefault("DEVICE_ID_PREFIX", "device");
         final int numberOfPublishers = ofNullable(getenv("NUMBER_OF_PUBLISHERS")).map(Integer::parseInt).orElse(1);
         final int numberOfFlows = ofNullable(getenv("NUMBER_OF_FLOWS")).map(Integer::parseInt).orElse(1);
+        final int parallelism = Integer.parseInt(getenv().getOrDefault("DATASET_BOOTSTRAP_PARALLELISM", "8"));
 
         System.out.format("Dataset: %s%n", datasetFile);
         System.out.format("Broker URI: %s%n", uri);
+        System.out.format("Bootstrap parallelism: %s%n", parallelism);
 
         System.out.format("Number of instances (flows × producers) = total - %s × %s = %s%n", numberOfFlows,
                 numberOfPublishers, numberOfFlows * numberOfPublishers);
 
-        for (int i = 0; i < numberOfFlows; i++) {
+        // set up and start flows concurrently, the same way the dataset simulator does
 
-            System.out.format("Starting flow #%s …%n", i);
+        final ExecutorService bootstrap = Executors.newFixedThreadPool(parallelism);
+        final long bootstrapStart = System.nanoTime();
+        final CompletableFuture<?>[] flows = new CompletableFuture<?>[numberOfFlows];
+        final Queue<Flow> started = new ConcurrentLinkedQueue<>();
 
-            @SuppressWarnings("resource")
-            final Flow flow = new Flow(new ClassLoaderComponentFactory(KapuaApplication.class.getClassLoader()));
+        for (int i = 0; i < numberOfFlows; i++) {
 
             final int flowIdx = i;
 
-            flow.modify(
-                    context -> wrap(
+            flows[i] = CompletableFuture.runAsync(() -> {
+
+                final long flowStart = System.nanoTime();
+
+                @SuppressWarnings("resource")
+                final Flow flow = new Flow(new ClassLoaderComponentFactory(KapuaApplication.class.getClassLoader()));
+
+                try {
+                    flow.modify(context -> wrap(
                             () -> setup(deviceIdPrefix, flowIdx, numberOfPublishers, context, datasetFile, uri)));
-            flow.start();
+                    started.add(flow);
+                    flow.start();
+                } catch (final Exception e) {
+                    throw new CompletionException(e);
+                }
+
+                System.out.format("Flow #%s running - setup: %s ms, after: %s ms%n", flowIdx,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - flowStart),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - bootstrapStart));
+
+            }, bootstrap);
+        }
+
+        try {
+            CompletableFuture.allOf(flows).join();
+        } catch (final CompletionException e) {
+            // don't leave the flows which did start running
+            logger.error("Failed to start flows", e.getCause());
+            bootstrap.shutdownNow();
+            for (final Flow flow : started) {
+                try {
+                    flow.close();
+                } catch (final Exception e1) {
+                    logger.warn("Failed to close flow", e1);
+                }
+            }
+            System.exit(1);
+        } finally {
+            bootstrap.shutdown();
         }
 
-        System.out.println("Flows are running…");
+        System.out.format("Flows are running - flows: %s, devices: %s, time: %s ms%n", numberOfFlows,
+                numberOfFlows * numberOfPublishers,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - bootstrapStart));
 
         try {
             Thread.sleep(Long.MAX_VALUE);
@@ -17,7 +17,29 @@ import static java.lang.System.getenv;
 import static java.util.Collections.singletonMap;
 import static java.util.Optional.ofNullable;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +50,12 @@ import de.dentrassi.flow.FlowContext;
 import de.dentrassi.flow.spi.type.ClassLoaderComponentFactory;
 import de.dentrassi.hono.demo.common.AddCredentials;
 import de.dentrassi.hono.demo.common.AddCredentials.Secret;
+import de.dentrassi.hono.demo.common.Config;
+import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+import de.dentrassi.hono.demo.common.MetricsServer;
+import io.vertx.core.Vertx;
+import io.vertx.core.net.NetClient;
+import io.vertx.mqtt.MqttClientOptions;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -71,6 +99,30 @@ public class Application {
         return REGISTRATION_URL != null;
     }
 
+    private static final boolean METRICS_ENABLED = Optional
+            .ofNullable(System.getenv("ENABLE_METRICS"))
+            .map(Boolean::parseBoolean)
+            .orElse(true);
+
+    private static InfluxDbMetrics metrics;
+
+    private static String makeInfluxDbUrl() {
+        final String url = getenv("INFLUXDB_URL");
+        if (url != null && !url.isEmpty()) {
+            return url;
+        }
+
+        return String.format("http://%s:%s", getenv("INFLUXDB_SERVICE_HOST"), getenv("INFLUXDB_SERVICE_PORT_API"));
+    }
+
+    private static void dumpStats(final ReplayStats stats) {
+        try {
+            stats.report(Instant.now(), metrics);
+        } catch (final Exception e) {
+            logger.error("Failed to dump statistics", e);
+        }
+    }
+
     private static final MediaType MT_JSON = MediaType.parse("application/json");
 
     private static OkHttpClient http;
@@ -162,6 +214,9 @@ public class Application {
 
     }
 
+    static final String[] COLUMNS = { "WHE", "RSE", "GRE", "MHE", "B1E", "BME", "CWE", "DWE", "EQE",
+            "FRE", "HPE", "OFE", "UTE", "WOE", "B2E", "CDE", "DNE", "EBE", "FGE", "HTE", "OUE", "TVE", "UNE" };
+
     public static void main(final String[] args) throws Exception {
 
         http = new OkHttpClient.Builder().build();
@@ -174,6 +229,20 @@ public class Application {
                 getenv().getOrDefault("HOSTNAME", "device"));
         final int numberOfPublishers = ofNullable(getenv("NUMBER_OF_PUBLISHERS")).map(Integer::parseInt).orElse(1);
         final int numberOfFlows = ofNullable(getenv("NUMBER_OF_FLOWS")).map(Integer::parseInt).orElse(1);
+        final double speed = Double.parseDouble(getenv().getOrDefault("DATASET_SPEED", "60"));
+        final Phase publisherPhase = Phase.parse(getenv("DATASET_PUBLISHER_PHASE"), Phase.STAGGER);
+        final Phase flowPhase = Phase.parse(getenv("DATASET_FLOW_PHASE"), Phase.NONE);
+        final int slots = Integer.parseInt(getenv().getOrDefault("DATASET_PHASE_SLOTS", "100"));
+        final ReplayClock.CatchUp catchUp = ReplayClock.CatchUp.parse(getenv("DATASET_CATCH_UP"),
+                ReplayClock.CatchUp.STRETCH);
+        final Duration startOffset = Duration.ofMillis(Config.parseDuration(getenv("DATASET_START_OFFSET")));
+        final Phase startPhase = Phase.parse(getenv("DATASET_START_PHASE"), Phase.NONE);
+        final Engine engine = Engine.parse(getenv("DATASET_ENGINE"), Engine.PUBLISHERS);
+        final boolean repeat = Boolean.parseBoolean(getenv().getOrDefault("DATASET_REPEAT", "false"));
+        final int parallelism = Integer.parseInt(getenv().getOrDefault("DATASET_BOOTSTRAP_PARALLELISM", "8"));
+        final String[] variedColumns = Config.parseList(getenv("DATASET_VARIATION_COLUMNS")).toArray(new String[0]);
+        final double variationScale = Double.parseDouble(getenv().getOrDefault("DATASET_VARIATION_SCALE", "0.2"));
+        final double variationNoise = Double.parseDouble(getenv().getOrDefault("DATASET_VARIATION_NOISE", "0.05"));
 
         System.out.format("Registration: %s%n", REGISTRATION_URL);
         System.out.format("Dataset: %s%n", datasetFile);
@@ -182,36 +251,173 @@ public class Application {
 
         System.out.format("Number of instances (flows × producers) = total - %s × %s = %s%n", numberOfFlows,
                 numberOfPublishers, numberOfFlows * numberOfPublishers);
+        System.out.format("Engine: %s, bootstrap parallelism: %s%n", engine, parallelism);
+        if (engine != Engine.FLOW) {
+            System.out.format("Phase - publishers: %s, flows: %s, slots: %s%n", publisherPhase, flowPhase, slots);
+            System.out.format("Replay - speed: %s, catch up: %s, repeat: %s%n", speed, catchUp, repeat);
+            System.out.format("Start - offset: %s, phase: %s%n", startOffset, startPhase);
+        }
+        if (engine != Engine.FLOW && variedColumns.length > 0) {
+            System.out.format("Variation - columns: %s, scale: %s, noise: %s%n", String.join(",", variedColumns),
+                    variationScale, variationNoise);
+        }
 
-        for (int i = 0; i < numberOfFlows; i++) {
+        if (METRICS_ENABLED) {
+            logger.info("Recording metrics");
+            metrics = new InfluxDbMetrics(makeInfluxDbUrl(),
+                    getenv("INFLUXDB_USER"),
+                    getenv("INFLUXDB_PASSWORD"),
+                    getenv("INFLUXDB_NAME"));
+        }
 
-            System.out.format("Starting flow #%s …%n", i);
+        MetricsServer.start();
 
-            @SuppressWarnings("resource")
-            final Flow flow = new Flow(new ClassLoaderComponentFactory(Application.class.getClassLoader()));
+        final ReplayStats stats = new ReplayStats();
+
+        final ScheduledExecutorService statsExecutor = Executors.newSingleThreadScheduledExecutor();
+        if (engine != Engine.FLOW) {
+            statsExecutor.scheduleAtFixedRate(() -> dumpStats(stats), 1, 1, TimeUnit.SECONDS);
+        }
+
+        // the replay engines load the dataset once, all flows share it
+
+        final long start = System.currentTimeMillis();
+        final Path datasetPath = Paths.get(datasetFile);
+        final Dataset dataset = engine != Engine.FLOW
+                ? Dataset.load(datasetPath, "UNIX_TS", TimeUnit.SECONDS, COLUMNS)
+                : null;
+
+        if (dataset != null) {
+            System.out.format("Loaded dataset - records: %s, columns: %s, time: %s ms%n", dataset.size(),
+                    dataset.getColumnCount(), System.currentTimeMillis() - start);
+        }
+
+        // flows may start at different points of the dataset, for some diversity
+
+        final long span = dataset != null ? dataset.getTimestamp(dataset.size() - 1) - dataset.getTimestamp(0) : 0;
+
+        // encode each record once, for all flows and publishers
+
+        final RecordEncoder encoder = dataset != null ? new RecordEncoder(dataset,
+                Integer.parseInt(getenv().getOrDefault("DATASET_ENCODER_CACHE", "1024")), variedColumns,
+                PayloadPatcher.maxFactor(variationScale, variationNoise)) : null;
+
+        final Vertx vertx = engine != Engine.FLOW ? Vertx.vertx() : null;
+        final Random random = new Random();
+
+        // the compact engine shares the client options and network client between all devices
+
+        final MqttClientOptions options = DatasetPublisher.createOptions();
+        final NetClient netClient = engine == Engine.COMPACT ? vertx.createNetClient(options) : null;
+
+        // set up flows concurrently, registering the devices of each flow in parallel to its construction
+
+        final ExecutorService bootstrap = Executors.newFixedThreadPool(parallelism);
+        final long bootstrapStart = System.nanoTime();
+        final CompletableFuture<?>[] flows = new CompletableFuture<?>[numberOfFlows];
+        final Queue<Flow> started = new ConcurrentLinkedQueue<>();
+
+        for (int i = 0; i < numberOfFlows; i++) {
 
             final int flowIdx = i;
 
-            flow.modify(
-                    context -> wrap(() -> setup(deviceIdPrefix, flowIdx, numberOfPublishers, context, datasetFile, host,
-                            port)));
-            flow.start();
-
-            /*
-            if (i == 0) {
-            
-                final ModelListener model = new ModelListener();
-                try (ListenerHandle listener = flow.registerListener(true, model)) {
-                    listener.initialized().get();
+            // set up a flow, returning the action starting it
+
+            final Supplier<Runnable> setup;
+
+            if (engine == Engine.FLOW) {
+
+                setup = () -> {
+                    final Flow flow = setupFlow(deviceIdPrefix, flowIdx, numberOfPublishers, datasetFile, host,
+                            port);
+                    return () -> {
+                        try {
+                            started.add(flow);
+                            flow.start();
+                        } catch (final Exception e) {
+                            throw new CompletionException(e);
+                        }
+                    };
+                };
+
+            } else {
+
+                final double[] phases = new double[numberOfPublishers];
+                for (int j = 0; j < numberOfPublishers; j++) {
+                    phases[j] = publisherPhase.offset(j, numberOfPublishers, random);
                 }
-            
-                newRenderer()
-                        .render(model.getFlow(), Paths.get("model.dot"));
+
+                final long offset = startOffset.toMillis()
+                        + Math.round(span * startPhase.offset(i, numberOfFlows, random));
+                final DatasetCursor cursor = dataset.cursor(offset);
+
+                System.out.format("Flow #%s - start: %s%n", i, Instant.ofEpochMilli(cursor.getTimestamp()));
+
+                final double flowOffset = flowPhase.offset(i, numberOfFlows, random);
+
+                // device specific payloads, the factor of a device only depends on its id
+
+                final PayloadPatcher patcher = variedColumns.length > 0
+                        ? new PayloadPatcher(variationScale, variationNoise, 31L * deviceIdPrefix.hashCode() + i)
+                        : null;
+
+                setup = () -> setup(vertx, deviceIdPrefix, flowIdx, numberOfPublishers, cursor, encoder, speed,
+                        catchUp, stats, phases, slots, flowOffset, patcher, repeat, netClient, options, host,
+                        port)::start;
             }
-            */
+
+            final CompletableFuture<Long> registered = register(deviceIdPrefix, i, numberOfPublishers, bootstrap);
+
+            flows[i] = CompletableFuture
+                    .supplyAsync(() -> {
+                        final long flowStart = System.nanoTime();
+                        final Runnable flow = setup.get();
+                        System.out.format("Flow #%s - setup: %s ms%n", flowIdx,
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - flowStart));
+                        return flow;
+                    }, bootstrap)
+                    .thenAcceptBoth(registered, (flow, registration) -> {
+                        flow.run();
+                        System.out.format("Flow #%s running - registration: %s ms, after: %s ms%n", flowIdx,
+                                TimeUnit.NANOSECONDS.toMillis(registration),
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - bootstrapStart));
+                    });
         }
 
-        System.out.println("Flows are running…");
+        try {
+            CompletableFuture.allOf(flows).join();
+        } catch (final CompletionException e) {
+            // don't leave the flows which did start running
+            logger.error("Failed to start flows", e.getCause());
+            bootstrap.shutdownNow();
+            statsExecutor.shutdownNow();
+            for (final Flow flow : started) {
+                try {
+                    flow.close();
+                } catch (final Exception e1) {
+                    logger.warn("Failed to close flow", e1);
+                }
+            }
+            if (vertx != null) {
+                close(vertx);
+            }
+            System.exit(1);
+        } finally {
+            bootstrap.shutdown();
+        }
+
+        final long bootstrapTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - bootstrapStart);
+
+        System.out.format("Flows are running - flows: %s, devices: %s, time: %s ms%n", numberOfFlows,
+                numberOfFlows * numberOfPublishers, bootstrapTime);
+
+        if (metrics != null) {
+            final Map<String, Number> values = new HashMap<>(4);
+            values.put("flows", numberOfFlows);
+            values.put("devices", numberOfFlows * numberOfPublishers);
+            values.put("time", bootstrapTime);
+            metrics.updateStats(Instant.now(), "dataset-bootstrap", values);
+        }
 
         try {
             Thread.sleep(Long.MAX_VALUE);
@@ -221,6 +427,82 @@ public class Application {
         // yes I know I didn't close the resources after coming out of a 292 million year long sleep 
     }
 
+    private static void close(final Vertx vertx) {
+        final CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(result -> closed.complete(null));
+        try {
+            closed.get(5, TimeUnit.SECONDS);
+        } catch (final Exception e) {
+            logger.warn("Failed to close vert.x", e);
+        }
+    }
+
+    private static String deviceIdPrefix(final String deviceIdPrefix, final int flowIdx) {
+        return String.format("%s-%s-", deviceIdPrefix, flowIdx);
+    }
+
+    private static String usernamePrefix(final String deviceIdPrefix, final int flowIdx) {
+        return String.format("user-%s-%s-", deviceIdPrefix, flowIdx);
+    }
+
+    /**
+     * Register the devices of a flow.
+     *
+     * @param deviceIdPrefix the device id prefix of the simulator
+     * @param flowIdx the index of the flow
+     * @param numberOfPublishers the number of devices of the flow
+     * @param executor the executor to register devices on, one task per device
+     * @return the time it took to register all devices, in nanoseconds
+     */
+    private static CompletableFuture<Long> register(final String deviceIdPrefix, final int flowIdx,
+            final int numberOfPublishers, final Executor executor) {
+
+        if (!shouldRegister()) {
+            return CompletableFuture.completedFuture(0L);
+        }
+
+        final String usernamePrefix = usernamePrefix(deviceIdPrefix, flowIdx);
+        final String deviceIdPrefixOfFlow = deviceIdPrefix(deviceIdPrefix, flowIdx);
+
+        final AtomicLong started = new AtomicLong(Long.MIN_VALUE);
+        final CompletableFuture<?>[] devices = new CompletableFuture<?>[numberOfPublishers];
+
+        for (int i = 0; i < numberOfPublishers; i++) {
+            final String username = usernamePrefix + i;
+            final String deviceId = deviceIdPrefixOfFlow + i;
+
+            devices[i] = CompletableFuture.runAsync(() -> {
+                started.compareAndSet(Long.MIN_VALUE, System.nanoTime());
+                try {
+                    registerDevice(deviceId, username, "hono-secret");
+                } catch (final Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+
+        return CompletableFuture.allOf(devices).thenApply(v -> {
+            final long start = started.get();
+            return start == Long.MIN_VALUE ? 0L : System.nanoTime() - start;
+        });
+    }
+
+    private static Flow setupFlow(final String deviceIdPrefix, final int flowIdx, final int numberOfPublishers,
+            final String file, final String host, final int port) {
+
+        try {
+            @SuppressWarnings("resource")
+            final Flow flow = new Flow(new ClassLoaderComponentFactory(Application.class.getClassLoader()));
+
+            flow.modify(context -> wrap(() -> setup(deviceIdPrefix, flowIdx, numberOfPublishers, context, file, host,
+                    port)));
+
+            return flow;
+        } catch (final Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
     public static void setup(final String deviceIdPrefix, final int flowIdx, final int numberOfPublishers,
             final FlowContext context,
             final String file, final String host, final int port) throws Exception {
@@ -251,24 +533,20 @@ public class Application {
 
         context.connectData(mapBuilder.port("map"), toJson.port("input"));
 
-        for (final String tag : new String[] { "WHE", "RSE", "GRE", "MHE", "B1E", "BME", "CWE", "DWE", "EQE", "FRE",
-                "HPE", "OFE", "UTE", "WOE", "B2E", "CDE", "DNE", "EBE", "FGE", "HTE", "OUE", "TVE", "UNE" }) {
+        for (final String tag : COLUMNS) {
 
             // connect fields of map builder, creating the payload
             context.connectData(csv.port("record/" + tag), mapBuilder.port(tag));
 
         }
 
-        for (int i = 0; i < numberOfPublishers; i++) {
+        final String usernamePrefix = usernamePrefix(deviceIdPrefix, flowIdx);
 
-            // mqtt
+        for (int i = 0; i < numberOfPublishers; i++) {
 
-            final String username = String.format("user-%s-%s-%s", deviceIdPrefix, flowIdx, i);
-            final String deviceId = String.format("%s-%s-%s", deviceIdPrefix, flowIdx, i);
+            // mqtt, the devices get registered before the flow starts
 
-            if (shouldRegister()) {
-                registerDevice(deviceId, username, "hono-secret");
-            }
+            final String username = usernamePrefix + i;
 
             final ComponentInstance mqttClient = context.createComponent("de.dentrassi.flow.component.mqtt.MqttClient",
                     map(map -> {
@@ -312,4 +590,42 @@ public class Application {
         }
     }
 
+    public static DatasetFlow setup(final Vertx vertx, final String deviceIdPrefix, final int flowIdx,
+            final int numberOfPublishers, final DatasetCursor cursor, final RecordEncoder encoder, final double speed,
+            final ReplayClock.CatchUp catchUp, final ReplayStats stats, final double[] phases, final int slots,
+            final double offset, final PayloadPatcher patcher, final boolean repeat, final NetClient netClient,
+            final MqttClientOptions options, final String host, final int port) {
+
+        System.out.format("Setting up flow #%s - prefix: %s, publishers#: %s%n", flowIdx, deviceIdPrefix,
+                numberOfPublishers);
+
+        final String usernamePrefix = usernamePrefix(deviceIdPrefix, flowIdx);
+        final String deviceIdPrefixOfFlow = deviceIdPrefix(deviceIdPrefix, flowIdx);
+
+        final List<DatasetPublisher> publishers = new ArrayList<>(netClient == null ? numberOfPublishers : 0);
+
+        if (netClient == null) {
+            for (int i = 0; i < numberOfPublishers; i++) {
+                publishers.add(new DatasetPublisher(vertx, host, port, deviceIdPrefixOfFlow + i,
+                        usernamePrefix + i + "@" + TENANT_ID, "hono-secret"));
+            }
+        }
+
+        // the flow expects publishers ordered by phase, which devices get which phase doesn't matter
+
+        final double[] ordered = phases.clone();
+        Arrays.sort(ordered);
+
+        final Publishers group;
+        if (netClient != null) {
+            group = new PublisherTable(vertx, netClient, options, host, port, numberOfPublishers,
+                    deviceIdPrefixOfFlow, usernamePrefix, "@" + TENANT_ID, "hono-secret");
+        } else {
+            group = Publishers.of(publishers);
+        }
+
+        return new DatasetFlow(flowIdx, vertx, cursor, encoder, speed, catchUp, stats, group, ordered, slots,
+                offset, patcher, repeat);
+    }
+
 }
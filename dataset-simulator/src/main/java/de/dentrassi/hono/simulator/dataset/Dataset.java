@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A time series dataset, held in memory as read-only columns.
+ * <p>
+ * The dataset is loaded once and shared by all flows, each flow reading it
+ * through a {@link DatasetCursor} of its own.
+ * </p>
+ */
+public final class Dataset {
+
+    /**
+     * The values of a single column.
+     */
+    interface Column {
+        double get(int row);
+    }
+
+    private static final class ArrayColumn implements Column {
+
+        private final double[] values;
+
+        private ArrayColumn(final double[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public double get(final int row) {
+            return this.values[row];
+        }
+    }
+
+    private final String[] columns;
+    private final long[] timestamps;
+    private final Column[] values;
+
+    Dataset(final String[] columns, final long[] timestamps, final Column[] values) {
+        this.columns = columns;
+        this.timestamps = timestamps;
+        this.values = values;
+    }
+
+    /**
+     * Load a dataset, either in the binary format of {@link DatasetFile}, or
+     * from a CSV file.
+     *
+     * @param file the file to load
+     * @param timestampColumn the name of the timestamp column, when reading
+     *            CSV
+     * @param timestampUnit the unit of the timestamp column, when reading CSV
+     * @param columns the columns to load
+     * @return the dataset, with the columns in the order requested
+     * @throws IOException if reading the file fails, or a column is missing
+     */
+    public static Dataset load(final Path file, final String timestampColumn, final TimeUnit timestampUnit,
+            final String[] columns) throws IOException {
+
+        if (DatasetFile.isDatasetFile(file)) {
+            // the file may have been converted with a different set of columns
+            return DatasetFile.open(file).select(columns);
+        }
+
+        return loadCsv(file, timestampColumn, timestampUnit, columns);
+    }
+
+    /**
+     * Load a dataset from a CSV file.
+     *
+     * @param file the file to load
+     * @param timestampColumn the name of the timestamp column
+     * @param timestampUnit the unit of the timestamp column
+     * @param columns the columns to load, the values are expected to be
+     *            numeric
+     * @return the dataset, with the columns in the order requested
+     * @throws IOException if reading the file fails, or a column is missing
+     */
+    public static Dataset loadCsv(final Path file, final String timestampColumn, final TimeUnit timestampUnit,
+            final String[] columns) throws IOException {
+
+        try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+
+            final String header = reader.readLine();
+            if (header == null) {
+                throw new IOException(String.format("Dataset '%s' is empty", file));
+            }
+
+            final String[] names = header.split(",");
+
+            final int timestampIndex = indexOf(names, timestampColumn);
+            final int[] indexes = new int[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                indexes[i] = indexOf(names, columns[i]);
+            }
+
+            int size = 0;
+            long[] timestamps = new long[64 * 1024];
+            double[][] values = new double[columns.length][timestamps.length];
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                final String[] toks = line.split(",", -1);
+
+                if (size == timestamps.length) {
+                    timestamps = Arrays.copyOf(timestamps, size * 2);
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = Arrays.copyOf(values[i], size * 2);
+                    }
+                }
+
+                timestamps[size] = timestampUnit.toMillis(Long.parseLong(toks[timestampIndex].trim()));
+                for (int i = 0; i < indexes.length; i++) {
+                    values[i][size] = parseValue(toks, indexes[i]);
+                }
+
+                size++;
+            }
+
+            final Column[] result = new Column[values.length];
+            for (int i = 0; i < values.length; i++) {
+                result[i] = new ArrayColumn(Arrays.copyOf(values[i], size));
+            }
+
+            return new Dataset(columns.clone(), Arrays.copyOf(timestamps, size), result);
+        }
+    }
+
+    /**
+     * Select columns of the dataset.
+     *
+     * @param columns the columns to select
+     * @return the dataset, sharing the values with this one, with the columns
+     *         in the order requested
+     * @throws IOException if a column is missing
+     */
+    Dataset select(final String[] columns) throws IOException {
+        if (Arrays.equals(this.columns, columns)) {
+            return this;
+        }
+
+        final Column[] values = new Column[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = this.values[indexOf(this.columns, columns[i])];
+        }
+
+        return new Dataset(columns.clone(), this.timestamps, values);
+    }
+
+    private static int indexOf(final String[] names, final String column) throws IOException {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].trim().equals(column)) {
+                return i;
+            }
+        }
+        throw new IOException(String.format("Missing column '%s' in dataset", column));
+    }
+
+    private static double parseValue(final String[] toks, final int index) {
+        if (index >= toks.length) {
+            return Double.NaN;
+        }
+
+        final String value = toks[index].trim();
+        if (value.isEmpty()) {
+            return Double.NaN;
+        }
+
+        return Double.parseDouble(value);
+    }
+
+    /**
+     * Get the number of records.
+     */
+    public int size() {
+        return this.timestamps.length;
+    }
+
+    public int getColumnCount() {
+        return this.columns.length;
+    }
+
+    public String getColumn(final int column) {
+        return this.columns[column];
+    }
+
+    /**
+     * Get the timestamp of a record.
+     *
+     * @return the timestamp, in milliseconds
+     */
+    public long getTimestamp(final int row) {
+        return this.timestamps[row];
+    }
+
+    /**
+     * Get a value of a record.
+     *
+     * @return the value, {@link Double#NaN} if the value was missing
+     */
+    public double getValue(final int column, final int row) {
+        return this.values[column].get(row);
+    }
+
+    /**
+     * Create a new cursor, positioned at the first record.
+     */
+    public DatasetCursor cursor() {
+        return new DatasetCursor(this);
+    }
+
+    /**
+     * Find the last record not after a point in time.
+     *
+     * @param timestamp the point in time, in milliseconds
+     * @return the row of the record, the first row if the timestamp is before
+     *         the first record
+     */
+    public int find(final long timestamp) {
+        int row = Arrays.binarySearch(this.timestamps, timestamp);
+        if (row < 0) {
+            // the row before the insertion point
+            return Math.max(0, -row - 2);
+        }
+
+        while (row + 1 < this.timestamps.length && this.timestamps[row + 1] == timestamp) {
+            row++;
+        }
+        return row;
+    }
+
+    /**
+     * Create a new cursor, positioned at a point in time.
+     *
+     * @param offset the point in time, relative to the first record of the
+     *            dataset, in milliseconds; offsets beyond the end of the
+     *            dataset wrap around
+     * @return the new cursor
+     */
+    public DatasetCursor cursor(final long offset) {
+        final DatasetCursor cursor = cursor();
+
+        final long first = this.timestamps[0];
+        final long span = this.timestamps[this.timestamps.length - 1] - first;
+
+        if (span > 0) {
+            cursor.seek(find(first + Math.floorMod(offset, span)));
+        }
+
+        return cursor;
+    }
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import de.dentrassi.hono.demo.common.Config;
+
+/**
+ * Converts a CSV dataset into the binary format of {@link DatasetFile}.
+ * <p>
+ * Usage: {@code DatasetConverter <input.csv> <output> [timestampColumn] [column,...]}
+ * </p>
+ * <p>
+ * The timestamp column defaults to {@code UNIX_TS}, in seconds. The columns
+ * default to the columns published by the simulator.
+ * </p>
+ */
+public class DatasetConverter {
+
+    public static void main(final String[] args) throws Exception {
+
+        if (args.length < 2) {
+            System.err.println("Usage: DatasetConverter <input.csv> <output> [timestampColumn] [column,...]");
+            System.exit(1);
+        }
+
+        final Path input = Paths.get(args[0]);
+        final Path output = Paths.get(args[1]);
+        final String timestampColumn = args.length > 2 ? args[2] : "UNIX_TS";
+        final String[] columns = args.length > 3 ? Config.parseList(args[3]).toArray(new String[0])
+                : Application.COLUMNS;
+
+        final long start = System.currentTimeMillis();
+
+        final Dataset dataset = Dataset.loadCsv(input, timestampColumn, TimeUnit.SECONDS, columns);
+        DatasetFile.write(dataset, output);
+
+        System.out.format("Converted %s records, %s columns in %s ms%n", dataset.size(), dataset.getColumnCount(),
+                System.currentTimeMillis() - start);
+    }
+}
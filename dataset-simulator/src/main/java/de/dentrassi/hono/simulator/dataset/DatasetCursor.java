@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+/**
+ * A position in a {@link Dataset}.
+ * <p>
+ * Cursors are cheap, and not thread safe. When reaching the end of the
+ * dataset, the cursor wraps around to the first record.
+ * </p>
+ */
+public final class DatasetCursor {
+
+    private final Dataset dataset;
+
+    private int row;
+
+    DatasetCursor(final Dataset dataset) {
+        if (dataset.size() <= 0) {
+            throw new IllegalArgumentException("Dataset must not be empty");
+        }
+
+        this.dataset = dataset;
+    }
+
+    public Dataset getDataset() {
+        return this.dataset;
+    }
+
+    public int getRow() {
+        return this.row;
+    }
+
+    /**
+     * Move to a record.
+     *
+     * @param row the row of the record
+     */
+    public void seek(final int row) {
+        if (row < 0 || row >= this.dataset.size()) {
+            throw new IndexOutOfBoundsException(String.format("Row %s out of range [0, %s)", row,
+                    this.dataset.size()));
+        }
+
+        this.row = row;
+    }
+
+    /**
+     * Move to the next record.
+     *
+     * @return {@code false} if the cursor wrapped around to the first record
+     */
+    public boolean next() {
+        if (++this.row < this.dataset.size()) {
+            return true;
+        }
+
+        this.row = 0;
+        return false;
+    }
+
+    /**
+     * Get the time until the next record.
+     *
+     * @return the difference between the timestamps of the next and the
+     *         current record, in milliseconds, or zero at the last record
+     */
+    public long getDuration() {
+        final int next = this.row + 1;
+        if (next >= this.dataset.size()) {
+            return 0;
+        }
+        return this.dataset.getTimestamp(next) - this.dataset.getTimestamp(this.row);
+    }
+
+    public long getTimestamp() {
+        return this.dataset.getTimestamp(this.row);
+    }
+
+    public double getValue(final int column) {
+        return this.dataset.getValue(column, this.row);
+    }
+}
@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A binary, columnar file format for datasets.
+ * <p>
+ * The file starts with a header, describing the columns, followed by the
+ * timestamps and then by one block per column. All blocks are aligned to 8
+ * bytes, so that they can be read directly from a memory mapped file:
+ * </p>
+ *
+ * <pre>
+ * magic         int     0x48445331 ("HDS1")
+ * rows          int
+ * columns       int
+ * first         long    timestamp of the first row, in milliseconds
+ * per column:
+ *   type        byte    'F' (float) or 'D' (double)
+ *   name        short length, followed by UTF-8 bytes
+ * padding to 8 bytes
+ * deltas        long[rows]   difference to the previous timestamp, 0 for the first row
+ * per column:
+ *   values      float[rows] or double[rows], padded to 8 bytes
+ * </pre>
+ * <p>
+ * Columns are stored as float when all of their values can be represented
+ * exactly, which is the case for the AMPds2 data.
+ * </p>
+ */
+public final class DatasetFile {
+
+    static final int MAGIC = 0x48445331;
+
+    private static final byte TYPE_FLOAT = 'F';
+    private static final byte TYPE_DOUBLE = 'D';
+
+    private static final class FloatColumn implements Dataset.Column {
+
+        private final FloatBuffer values;
+
+        private FloatColumn(final FloatBuffer values) {
+            this.values = values;
+        }
+
+        @Override
+        public double get(final int row) {
+            return this.values.get(row);
+        }
+    }
+
+    private static final class DoubleColumn implements Dataset.Column {
+
+        private final DoubleBuffer values;
+
+        private DoubleColumn(final DoubleBuffer values) {
+            this.values = values;
+        }
+
+        @Override
+        public double get(final int row) {
+            return this.values.get(row);
+        }
+    }
+
+    private DatasetFile() {
+    }
+
+    /**
+     * Test if a file is in the binary format.
+     *
+     * @param file the file to test
+     * @return {@code true} if the file starts with the magic number
+     * @throws IOException if reading the file fails
+     */
+    public static boolean isDatasetFile(final Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(4);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    return false;
+                }
+            }
+            return buffer.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Map a dataset file into memory.
+     * <p>
+     * The values are read from the mapping, only the timestamps get decoded
+     * into the heap.
+     * </p>
+     *
+     * @param file the file to open
+     * @return the dataset
+     * @throws IOException if reading the file fails
+     */
+    public static Dataset open(final Path file) throws IOException {
+
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException(String.format("'%s' is not a dataset file", file));
+        }
+
+        final int rows = buffer.getInt();
+        final int columnCount = buffer.getInt();
+        final long first = buffer.getLong();
+
+        final String[] columns = new String[columnCount];
+        final byte[] types = new byte[columnCount];
+
+        for (int i = 0; i < columnCount; i++) {
+            types[i] = buffer.get();
+            final byte[] name = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(name);
+            columns[i] = new String(name, UTF_8);
+        }
+
+        buffer.position(align(buffer.position()));
+
+        final long[] timestamps = new long[rows];
+        final LongBuffer deltas = buffer.asLongBuffer();
+        long timestamp = first;
+        for (int i = 0; i < rows; i++) {
+            timestamp += deltas.get(i);
+            timestamps[i] = timestamp;
+        }
+        buffer.position(buffer.position() + rows * Long.BYTES);
+
+        final Dataset.Column[] values = new Dataset.Column[columnCount];
+
+        for (int i = 0; i < columnCount; i++) {
+            final ByteBuffer slice = buffer.slice();
+
+            switch (types[i]) {
+            case TYPE_FLOAT:
+                values[i] = new FloatColumn(slice.asFloatBuffer());
+                buffer.position(buffer.position() + align(rows * Float.BYTES));
+                break;
+            case TYPE_DOUBLE:
+                values[i] = new DoubleColumn(slice.asDoubleBuffer());
+                buffer.position(buffer.position() + align(rows * Double.BYTES));
+                break;
+            default:
+                throw new IOException(String.format("Unknown column type: %s", types[i]));
+            }
+        }
+
+        return new Dataset(columns, timestamps, values);
+    }
+
+    /**
+     * Write a dataset.
+     *
+     * @param dataset the dataset to write
+     * @param file the file to write to
+     * @throws IOException if writing fails
+     */
+    public static void write(final Dataset dataset, final Path file) throws IOException {
+
+        final int rows = dataset.size();
+        final int columnCount = dataset.getColumnCount();
+
+        final byte[] types = new byte[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            types[i] = isFloat(dataset, i) ? TYPE_FLOAT : TYPE_DOUBLE;
+        }
+
+        try (OutputStream stream = Files.newOutputStream(file);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(rows);
+            out.writeInt(columnCount);
+            out.writeLong(rows > 0 ? dataset.getTimestamp(0) : 0);
+
+            for (int i = 0; i < columnCount; i++) {
+                out.writeByte(types[i]);
+                final byte[] name = dataset.getColumn(i).getBytes(UTF_8);
+                out.writeShort(name.length);
+                out.write(name);
+            }
+
+            pad(out);
+
+            long last = rows > 0 ? dataset.getTimestamp(0) : 0;
+            for (int row = 0; row < rows; row++) {
+                final long timestamp = dataset.getTimestamp(row);
+                out.writeLong(timestamp - last);
+                last = timestamp;
+            }
+
+            for (int i = 0; i < columnCount; i++) {
+                for (int row = 0; row < rows; row++) {
+                    if (types[i] == TYPE_FLOAT) {
+                        out.writeFloat((float) dataset.getValue(i, row));
+                    } else {
+                        out.writeDouble(dataset.getValue(i, row));
+                    }
+                }
+                pad(out);
+            }
+        }
+    }
+
+    private static boolean isFloat(final Dataset dataset, final int column) {
+        for (int row = 0; row < dataset.size(); row++) {
+            final double value = dataset.getValue(column, row);
+            if (!Double.isNaN(value) && (double) (float) value != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int align(final int position) {
+        return (position + 7) & ~7;
+    }
+
+    private static void pad(final DataOutputStream out) throws IOException {
+        while (out.size() % 8 != 0) {
+            out.writeByte(0);
+        }
+    }
+}
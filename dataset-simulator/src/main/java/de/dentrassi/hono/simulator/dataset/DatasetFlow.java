@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Replays a dataset to a group of publishers.
+ * <p>
+ * Each record of the dataset is encoded once, see {@link RecordEncoder}, and
+ * the same payload is published by all publishers of the flow. Records are
+ * scheduled by a {@link ReplayClock}. When the replay falls behind, the
+ * {@link ReplayClock.CatchUp} policy decides how to get back on schedule.
+ * </p>
+ * <p>
+ * After the last record of the dataset, the replay continues with the first
+ * one. Unless it is set to repeat, it ends once it has replayed the full
+ * dataset, when it reaches the record it started with. So every flow
+ * replays the same span, no matter where in the dataset it started.
+ * </p>
+ * <p>
+ * Publishers don't publish a record at the same instant. Each publisher has a
+ * phase, a fixed offset into the interval between two records. The interval
+ * is split into a number of slots, and each slot dispatches the publishers
+ * whose phase falls into it. So the load is spread over the interval, without
+ * a timer per publisher.
+ * </p>
+ * <p>
+ * With a {@link PayloadPatcher}, each publisher gets a device specific
+ * variant of the record instead, patched into the encoded template of the
+ * record.
+ * </p>
+ */
+public class DatasetFlow {
+
+    private static final long MIN_SLOT = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int index;
+    private final Vertx vertx;
+    private final DatasetCursor cursor;
+    private final RecordEncoder encoder;
+    private final ReplayClock clock;
+    private final ReplayClock.CatchUp catchUp;
+    private final ReplayStats stats;
+
+    /**
+     * Publishers, ordered by phase.
+     */
+    private final Publishers publishers;
+    private final double[] phases;
+
+    private final int slots;
+    private final double offset;
+
+    private final PayloadPatcher patcher;
+
+    private final boolean repeat;
+    private int startRow;
+    private boolean ended;
+
+    private Buffer payload;
+    private long intervalStart;
+    private long interval;
+    private int slotCount;
+    private int nextSlot;
+    private int nextPublisher;
+
+    /**
+     * Incremented with each record, so that slots of a previous record get
+     * ignored.
+     */
+    private int generation;
+
+    /**
+     * Create a new flow.
+     *
+     * @param index the index of the flow
+     * @param vertx the vertx instance to schedule on
+     * @param cursor the cursor to read records from
+     * @param encoder the encoder of records
+     * @param speed the speed factor of the replay
+     * @param catchUp the policy for catching up with the schedule
+     * @param stats the stats to record to
+     * @param publishers the publishers, ordered by phase
+     * @param phases the phase of each publisher, ascending, between 0 and 1
+     * @param slots the maximum number of slots per interval
+     * @param offset the offset of the flow, as fraction of the first interval
+     * @param patcher the patcher for device specific payloads, may be
+     *            {@code null} to publish the same payload on all publishers
+     * @param repeat whether to continue after replaying the full dataset
+     */
+    public DatasetFlow(final int index, final Vertx vertx, final DatasetCursor cursor, final RecordEncoder encoder,
+            final double speed, final ReplayClock.CatchUp catchUp, final ReplayStats stats,
+            final Publishers publishers, final double[] phases, final int slots, final double offset,
+            final PayloadPatcher patcher, final boolean repeat) {
+
+        if (publishers.size() != phases.length) {
+            throw new IllegalArgumentException("Each publisher requires a phase");
+        }
+
+        this.index = index;
+        this.vertx = vertx;
+        this.cursor = cursor;
+        this.encoder = encoder;
+        this.clock = new ReplayClock(speed);
+        this.catchUp = catchUp;
+        this.stats = stats;
+        this.publishers = publishers;
+        this.phases = phases;
+        this.slots = Math.max(1, slots);
+        this.offset = offset;
+        this.patcher = patcher;
+        this.repeat = repeat;
+    }
+
+    public int getIndex() {
+        return this.index;
+    }
+
+    public void start() {
+        this.publishers.connect();
+        this.stats.started();
+
+        this.startRow = this.cursor.getRow();
+
+        // the first record is due after the offset of the flow
+
+        final long now = System.nanoTime();
+        final long first = this.clock.toNanos(this.cursor.getDuration());
+        this.clock.reset(this.cursor.getTimestamp(), now + Math.round(first * this.offset));
+
+        schedule(this.clock.due(this.cursor.getTimestamp()), now, v -> tick());
+    }
+
+    private void schedule(final long due, final long now, final Handler<Long> handler) {
+        final long delay = due - now;
+        if (delay <= 0) {
+            this.vertx.runOnContext(v -> handler.handle(null));
+        } else {
+            this.vertx.setTimer(Math.max(1, TimeUnit.NANOSECONDS.toMillis(delay + 999_999)), handler);
+        }
+    }
+
+    /**
+     * Move to the next record.
+     *
+     * @return the point in time the next record is due
+     */
+    private long advance() {
+        final long due = this.clock.due(this.cursor.getTimestamp()) + this.clock.toNanos(this.cursor.getDuration());
+
+        if (!this.cursor.next()) {
+            // wrapped around, continue with the first record, when the next one would have been due
+            this.clock.reset(this.cursor.getTimestamp(), due);
+        }
+
+        if (!this.repeat && this.cursor.getRow() == this.startRow) {
+            // the full dataset got replayed
+            this.ended = true;
+        }
+
+        return due;
+    }
+
+    private void tick() {
+
+        // publishers which didn't get their turn yet, still publish the previous record
+
+        dispatch(this.publishers.size());
+
+        long now = System.nanoTime();
+        long due = this.clock.due(this.cursor.getTimestamp());
+
+        if (this.catchUp == ReplayClock.CatchUp.SKIP) {
+            // skip all records which are overdue, except for the latest one
+            long next;
+            while ((next = this.clock.due(this.cursor.getTimestamp() + this.cursor.getDuration())) <= now
+                    && this.cursor.getDuration() > 0) {
+                this.stats.skipped(this.cursor.getDuration());
+                advance();
+                due = next;
+                if (this.ended) {
+                    // skipped up to the record we started with
+                    end();
+                    return;
+                }
+            }
+        }
+
+        final long lag = now - due;
+
+        if (this.catchUp == ReplayClock.CatchUp.STRETCH && lag > 0) {
+            this.clock.shift(lag);
+            this.stats.stretched(lag);
+            due = now;
+        }
+
+        this.stats.replayed(lag, this.cursor.getDuration());
+
+        if (this.patcher != null) {
+            this.patcher.reset(this.encoder.template(this.cursor.getRow()));
+        } else {
+            this.payload = this.encoder.encode(this.cursor.getRow());
+        }
+        this.intervalStart = due;
+
+        final long next = advance();
+        this.interval = next - due;
+
+        // a slot lasts at least one millisecond
+
+        this.slotCount = (int) Math.max(1, Math.min(this.slots, this.interval / MIN_SLOT));
+        this.nextSlot = 0;
+        this.nextPublisher = 0;
+
+        slot(++this.generation);
+
+        now = System.nanoTime();
+
+        if (this.ended) {
+            // let all publishers get the last record
+            schedule(next, now, v -> end());
+            return;
+        }
+
+        schedule(next, now, v -> tick());
+    }
+
+    private void end() {
+        dispatch(this.publishers.size());
+        this.generation++;
+
+        System.out.format("Flow #%s - replayed the dataset%n", this.index);
+        this.stats.ended();
+    }
+
+    private void slot(final int generation) {
+        if (generation != this.generation) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+
+        // dispatch all slots which are due, scheduled against the start of the interval
+
+        while (this.nextSlot < this.slotCount && this.nextPublisher < this.publishers.size()) {
+
+            final long due = this.intervalStart + this.interval * this.nextSlot / this.slotCount;
+            if (due > now) {
+                schedule(due, now, v -> slot(generation));
+                return;
+            }
+
+            final double end = (double) ++this.nextSlot / (double) this.slotCount;
+
+            int to = this.nextPublisher;
+            while (to < this.phases.length && this.phases[to] < end) {
+                to++;
+            }
+
+            dispatch(to);
+        }
+    }
+
+    private void dispatch(final int to) {
+        if (this.generation == 0) {
+            // no record yet
+            return;
+        }
+
+        for (int i = this.nextPublisher; i < to; i++) {
+            this.publishers.publish(i, this.patcher != null ? this.patcher.patch(i) : this.payload);
+        }
+        this.nextPublisher = Math.max(this.nextPublisher, to);
+    }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.dentrassi.hono.demo.common.Config;
+import de.dentrassi.hono.demo.mqtt.MqttClient;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.mqtt.MqttClientOptions;
+
+/**
+ * A simulated device, publishing dataset records over MQTT.
+ */
+public class DatasetPublisher {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatasetPublisher.class);
+
+    private static final long RECONNECT_DELAY = Config
+            .parseDuration(System.getenv().getOrDefault("RECONNECT_DELAY", "2000"));
+
+    private final Vertx vertx;
+    private final String host;
+    private final int port;
+    private final String deviceId;
+
+    private final MqttClient client;
+
+    public DatasetPublisher(final Vertx vertx, final String host, final int port, final String deviceId,
+            final String username, final String password) {
+
+        this.vertx = vertx;
+        this.host = host;
+        this.port = port;
+        this.deviceId = deviceId;
+
+        final MqttClientOptions options = createOptions();
+
+        options.setUsername(username);
+        options.setPassword(password);
+
+        this.client = MqttClient.create(vertx, options);
+        this.client.closeHandler(v -> reconnect());
+    }
+
+    /**
+     * Create the MQTT client options, common to all devices.
+     */
+    static MqttClientOptions createOptions() {
+        final MqttClientOptions options = new MqttClientOptions();
+
+        options.setCleanSession(true);
+        options.setConnectTimeout(10_000);
+        options.setAutoGeneratedClientId(true);
+        options.setSsl(true);
+        options.setTrustAll(true); // WARNING: DO NOT USE IN PRODUCTION
+        options.setAutoKeepAlive(true);
+
+        return options;
+    }
+
+    public void connect() {
+        this.client.connect(this.port, this.host, this.host, result -> {
+            if (result.failed()) {
+                logger.debug("Failed to connect device {}", this.deviceId, result.cause());
+                reconnect();
+            }
+        });
+    }
+
+    private void reconnect() {
+        this.vertx.setTimer(RECONNECT_DELAY, v -> connect());
+    }
+
+    /**
+     * Publish a payload, if the device is connected.
+     *
+     * @param payload the payload to publish
+     * @return {@code true} if the payload was published, {@code false} if the
+     *         device is not connected
+     */
+    public boolean publish(final Buffer payload) {
+        if (!this.client.isConnected()) {
+            return false;
+        }
+
+        this.client.publish("telemetry", payload, MqttQoS.AT_MOST_ONCE, false, false);
+        return true;
+    }
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import java.util.Locale;
+
+/**
+ * How flows are built, and how publishers are held in memory.
+ */
+public enum Engine {
+    /**
+     * A graph of flow components per flow, reading the CSV file on its own.
+     * Kept for comparison, as it parses the file once per flow.
+     */
+    FLOW,
+    /**
+     * Replays the shared {@link Dataset}, with a {@link DatasetPublisher}
+     * instance, with its own MQTT client options, per device. The default.
+     */
+    PUBLISHERS,
+    /**
+     * Replays the shared {@link Dataset}, with a {@link PublisherTable} per
+     * flow, for large numbers of devices.
+     */
+    COMPACT;
+
+    public static Engine parse(final String value, final Engine defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return valueOf(value.toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Creates device specific payloads from a {@link PayloadTemplate}.
+ * <p>
+ * Each device scales the values of the slots by a fixed factor, derived from
+ * its index, and adds some random noise to each message. The template is
+ * copied once per record into a working buffer, and the slots get patched
+ * in place for each device. So there is no JSON encoding, and no allocation,
+ * per message.
+ * </p>
+ * <p>
+ * The working buffer is re-used for the next device, which relies on the MQTT
+ * client copying the payload when publishing, as the embedded client does.
+ * Instances are not thread safe.
+ * </p>
+ */
+public class PayloadPatcher {
+
+    /**
+     * The number of fraction digits written to slots.
+     */
+    static final int FRACTION_DIGITS = 3;
+
+    private static final long FRACTION = 1_000;
+
+    private final double scale;
+    private final double noise;
+    private final long seed;
+
+    private final byte[] digits = new byte[32];
+
+    private PayloadTemplate template;
+    private Buffer buffer;
+
+    /**
+     * Create a new patcher.
+     *
+     * @param scale the maximum deviation of the factor of a device, relative
+     *            to the base value
+     * @param noise the maximum noise of a message, relative to the scaled
+     *            value
+     * @param seed the seed of the factors, devices with the same seed and
+     *            index get the same factor
+     */
+    public PayloadPatcher(final double scale, final double noise, final long seed) {
+        this.scale = scale;
+        this.noise = noise;
+        this.seed = seed;
+    }
+
+    /**
+     * Get the maximum factor a value may be multiplied with.
+     */
+    public static double maxFactor(final double scale, final double noise) {
+        return (1.0 + Math.abs(scale)) * (1.0 + Math.abs(noise));
+    }
+
+    /**
+     * Start with a new record.
+     *
+     * @param template the template of the record
+     */
+    public void reset(final PayloadTemplate template) {
+        this.template = template;
+        this.buffer = Buffer.buffer(template.getBytes());
+    }
+
+    /**
+     * Get the payload of a device.
+     *
+     * @param index the index of the device
+     * @return the payload, only valid until the next call
+     */
+    public Buffer patch(final int index) {
+        if (this.template == null) {
+            return null;
+        }
+
+        final double factor = factor(index);
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < this.template.getSlotCount(); i++) {
+
+            double value = this.template.getValue(i) * factor;
+            if (this.noise != 0) {
+                value *= 1.0 + this.noise * (2.0 * random.nextDouble() - 1.0);
+            }
+
+            final int offset = this.template.getOffset(i);
+            final int width = this.template.getWidth(i);
+
+            final int length = format(value, this.digits);
+            if (length + 1 > width) {
+                // doesn't fit, keep the base value
+                this.buffer.setBytes(offset, this.template.getBytes(), offset, width);
+                continue;
+            }
+
+            this.digits[length] = '"';
+            this.buffer.setBytes(offset, this.digits, 0, length + 1);
+            for (int j = length + 1; j < width; j++) {
+                this.buffer.setByte(offset + j, (byte) ' ');
+            }
+        }
+
+        return this.buffer;
+    }
+
+    private double factor(final int index) {
+        if (this.scale == 0) {
+            return 1.0;
+        }
+
+        // a uniform value in [0, 1), derived from seed and index
+
+        final double u = (mix(this.seed + index * 0x9E3779B97F4A7C15L) >>> 11) * 0x1.0p-53;
+        return 1.0 + this.scale * (2.0 * u - 1.0);
+    }
+
+    private static long mix(long z) {
+        // the finalizer of SplitMix64
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Format a value as decimal number, with up to {@link #FRACTION_DIGITS}
+     * fraction digits.
+     *
+     * @param value the value to format
+     * @param out the buffer to write to, at least 32 bytes
+     * @return the number of bytes written
+     */
+    static int format(final double value, final byte[] out) {
+
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e15) {
+            out[0] = '0';
+            return 1;
+        }
+
+        final long scaled = Math.round(Math.abs(value) * FRACTION);
+
+        int pos = 0;
+        if (value < 0 && scaled != 0) {
+            out[pos++] = '-';
+        }
+
+        final long integer = scaled / FRACTION;
+        long fraction = scaled % FRACTION;
+
+        pos = writeDigits(integer, out, pos);
+
+        if (fraction != 0) {
+            out[pos++] = '.';
+            int digits = FRACTION_DIGITS;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            for (int i = digits - 1; i >= 0; i--) {
+                out[pos + i] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            pos += digits;
+        }
+
+        return pos;
+    }
+
+    private static int writeDigits(long value, final byte[] out, final int pos) {
+        int length = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            length++;
+        }
+
+        for (int i = pos + length - 1; i >= pos; i--) {
+            out[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+
+        return pos + length;
+    }
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+/**
+ * The encoded payload of a record, with slots for values which vary by
+ * device.
+ * <p>
+ * Each slot is a fixed width region of the payload, holding the base value of
+ * a field and the closing quote of the string, followed by spaces. As JSON
+ * allows whitespace after a value, a different value can be written into the
+ * slot, without moving the rest of the payload.
+ * </p>
+ * <p>
+ * Templates are shared, and must not be modified.
+ * </p>
+ */
+public final class PayloadTemplate {
+
+    private final byte[] bytes;
+    private final int[] offsets;
+    private final int[] widths;
+    private final double[] values;
+
+    PayloadTemplate(final byte[] bytes, final int[] offsets, final int[] widths, final double[] values) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+        this.widths = widths;
+        this.values = values;
+    }
+
+    byte[] getBytes() {
+        return this.bytes;
+    }
+
+    int getSlotCount() {
+        return this.offsets.length;
+    }
+
+    int getOffset(final int slot) {
+        return this.offsets[slot];
+    }
+
+    int getWidth(final int slot) {
+        return this.widths[slot];
+    }
+
+    /**
+     * Get the base value of a slot, as found in the dataset.
+     */
+    double getValue(final int slot) {
+        return this.values[slot];
+    }
+}
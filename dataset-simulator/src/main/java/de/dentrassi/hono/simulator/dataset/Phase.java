@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * How to spread publishers, or flows, over a replay interval.
+ */
+public enum Phase {
+    /**
+     * All at the start of the interval.
+     */
+    NONE {
+        @Override
+        public double offset(final int index, final int count, final Random random) {
+            return 0;
+        }
+    },
+    /**
+     * Evenly spaced over the interval.
+     */
+    STAGGER {
+        @Override
+        public double offset(final int index, final int count, final Random random) {
+            return count <= 0 ? 0 : (double) index / (double) count;
+        }
+    },
+    /**
+     * At a random, but fixed, position in the interval.
+     */
+    RANDOM {
+        @Override
+        public double offset(final int index, final int count, final Random random) {
+            return random.nextDouble();
+        }
+    };
+
+    /**
+     * Get the offset of an entry.
+     *
+     * @param index the index of the entry
+     * @param count the number of entries
+     * @param random the source of random offsets
+     * @return the offset, as a fraction of the interval, between 0
+     *         (inclusive) and 1 (exclusive)
+     */
+    public abstract double offset(int index, int count, Random random);
+
+    public static Phase parse(final String value, final Phase defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return valueOf(value.toUpperCase(Locale.ROOT));
+    }
+}
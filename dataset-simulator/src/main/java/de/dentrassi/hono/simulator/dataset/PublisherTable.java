@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.dentrassi.hono.demo.common.Config;
+import de.dentrassi.hono.demo.mqtt.MqttClient;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetClient;
+import io.vertx.mqtt.MqttClientOptions;
+
+/**
+ * A compact group of publishers, for large numbers of devices.
+ * <p>
+ * Instead of an object graph per device, the state of all devices is kept in
+ * arrays. Device ids and usernames are derived from the index, all clients
+ * share the same network client and options, and a single periodic timer
+ * takes care of reconnecting. What remains per device is the MQTT client
+ * itself, plus its connection once connected.
+ * </p>
+ */
+public class PublisherTable implements Publishers {
+
+    private static final Logger logger = LoggerFactory.getLogger(PublisherTable.class);
+
+    private static final long RECONNECT_DELAY = Config
+            .parseDuration(System.getenv().getOrDefault("RECONNECT_DELAY", "2000"));
+
+    private static final byte DISCONNECTED = 0;
+    private static final byte CONNECTING = 1;
+    private static final byte CONNECTED = 2;
+
+    private final Vertx vertx;
+    private final NetClient netClient;
+    private final MqttClientOptions options;
+    private final String host;
+    private final int port;
+
+    private final String deviceIdPrefix;
+    private final String usernamePrefix;
+    private final String usernameSuffix;
+    private final String password;
+
+    private final MqttClient[] clients;
+    private final byte[] states;
+
+    /**
+     * Create a new table.
+     * <p>
+     * The device with index {@code i} has the device id
+     * {@code deviceIdPrefix + i} and the username
+     * {@code usernamePrefix + i + usernameSuffix}.
+     * </p>
+     *
+     * @param vertx the vertx instance to schedule reconnects on
+     * @param netClient the network client, shared by all devices
+     * @param options the MQTT client options, shared by all devices
+     * @param host the host to connect to
+     * @param port the port to connect to
+     * @param size the number of devices
+     * @param deviceIdPrefix the prefix of the device ids
+     * @param usernamePrefix the prefix of the usernames
+     * @param usernameSuffix the suffix of the usernames
+     * @param password the password of all devices
+     */
+    public PublisherTable(final Vertx vertx, final NetClient netClient, final MqttClientOptions options,
+            final String host, final int port, final int size, final String deviceIdPrefix,
+            final String usernamePrefix, final String usernameSuffix, final String password) {
+
+        this.vertx = vertx;
+        this.netClient = netClient;
+        this.options = options;
+        this.host = host;
+        this.port = port;
+
+        this.deviceIdPrefix = deviceIdPrefix;
+        this.usernamePrefix = usernamePrefix;
+        this.usernameSuffix = usernameSuffix;
+        this.password = password;
+
+        this.clients = new MqttClient[size];
+        this.states = new byte[size];
+    }
+
+    @Override
+    public int size() {
+        return this.clients.length;
+    }
+
+    @Override
+    public void connect() {
+        connectAll();
+        this.vertx.setPeriodic(RECONNECT_DELAY, v -> connectAll());
+    }
+
+    private void connectAll() {
+        for (int i = 0; i < this.clients.length; i++) {
+            if (this.states[i] == DISCONNECTED) {
+                connect(i);
+            }
+        }
+    }
+
+    private void connect(final int index) {
+        MqttClient client = this.clients[index];
+
+        if (client == null) {
+            client = MqttClient.create(this.netClient, this.options, null,
+                    this.usernamePrefix + index + this.usernameSuffix, this.password);
+            client.closeHandler(v -> this.states[index] = DISCONNECTED);
+            this.clients[index] = client;
+        }
+
+        this.states[index] = CONNECTING;
+
+        client.connect(this.port, this.host, this.host, result -> {
+            if (result.failed()) {
+                logger.debug("Failed to connect device {}{}", this.deviceIdPrefix, index, result.cause());
+                this.states[index] = DISCONNECTED;
+            } else {
+                this.states[index] = CONNECTED;
+            }
+        });
+    }
+
+    @Override
+    public boolean publish(final int index, final Buffer payload) {
+        if (this.states[index] != CONNECTED || !this.clients[index].isConnected()) {
+            return false;
+        }
+
+        this.clients[index].publish("telemetry", payload, MqttQoS.AT_MOST_ONCE, false, false);
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import java.util.List;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * The simulated devices of a {@link DatasetFlow}, addressed by index.
+ */
+public interface Publishers {
+
+    int size();
+
+    /**
+     * Connect all devices, reconnecting them when the connection gets lost.
+     */
+    void connect();
+
+    /**
+     * Publish a payload, if the device is connected.
+     *
+     * @param index the index of the device
+     * @param payload the payload to publish
+     * @return {@code true} if the payload was published, {@code false} if the
+     *         device is not connected
+     */
+    boolean publish(int index, Buffer payload);
+
+    /**
+     * Create a group of publishers, backed by a {@link DatasetPublisher}
+     * instance per device.
+     */
+    static Publishers of(final List<DatasetPublisher> publishers) {
+        final DatasetPublisher[] array = publishers.toArray(new DatasetPublisher[publishers.size()]);
+
+        return new Publishers() {
+
+            @Override
+            public int size() {
+                return array.length;
+            }
+
+            @Override
+            public void connect() {
+                for (final DatasetPublisher publisher : array) {
+                    publisher.connect();
+                }
+            }
+
+            @Override
+            public boolean publish(final int index, final Buffer payload) {
+                return array[index].publish(payload);
+            }
+        };
+    }
+}
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Encodes dataset records into their JSON payload, once for all publishers.
+ * <p>
+ * Records are written directly from the columns of the dataset, as a JSON
+ * object mapping the column names to their values. Values are written as
+ * strings, like the CSV reader of the flow engine provides them, so that
+ * consumers see the same payload with all engines. Missing values are
+ * omitted. The encoded records are kept in a small cache, indexed by row, so
+ * that flows replaying the same records share the same buffer.
+ * </p>
+ * <p>
+ * The returned buffers are shared, and must not be modified.
+ * </p>
+ * <p>
+ * For device specific payloads, records can be encoded as
+ * {@link PayloadTemplate}, with slots for the values of selected columns.
+ * </p>
+ */
+public class RecordEncoder {
+
+    private static final class Entry {
+
+        private final int row;
+        private final Buffer payload;
+        private final PayloadTemplate template;
+
+        private Entry(final int row, final Buffer payload, final PayloadTemplate template) {
+            this.row = row;
+            this.payload = payload;
+            this.template = template;
+        }
+    }
+
+    private final Dataset dataset;
+
+    private final String[] keys;
+    private final byte[][] keyBytes;
+
+    private final boolean[] varied;
+    private final double maxFactor;
+
+    private final AtomicReferenceArray<Entry> cache;
+    private final int mask;
+
+    /**
+     * Create a new encoder.
+     *
+     * @param dataset the dataset to encode
+     * @param cacheSize the number of records to cache, rounded up to a power
+     *            of two
+     */
+    public RecordEncoder(final Dataset dataset, final int cacheSize) {
+        this(dataset, cacheSize, new String[0], 1.0);
+    }
+
+    /**
+     * Create a new encoder, supporting templates.
+     *
+     * @param dataset the dataset to encode
+     * @param cacheSize the number of records to cache, rounded up to a power
+     *            of two
+     * @param variedColumns the columns which get a slot in templates, or
+     *            {@code "*"} for all columns
+     * @param maxFactor the maximum factor the values of slots get multiplied
+     *            with, which determines the width of the slots
+     */
+    public RecordEncoder(final Dataset dataset, final int cacheSize, final String[] variedColumns,
+            final double maxFactor) {
+        this.dataset = dataset;
+
+        this.keys = new String[dataset.getColumnCount()];
+        for (int i = 0; i < this.keys.length; i++) {
+            this.keys[i] = '"' + escape(dataset.getColumn(i)) + "\":\"";
+        }
+
+        this.keyBytes = new byte[this.keys.length][];
+        for (int i = 0; i < this.keys.length; i++) {
+            this.keyBytes[i] = this.keys[i].getBytes(UTF_8);
+        }
+
+        this.varied = new boolean[this.keys.length];
+        for (final String column : variedColumns) {
+            if ("*".equals(column)) {
+                Arrays.fill(this.varied, true);
+                continue;
+            }
+            final int index = indexOf(dataset, column);
+            if (index < 0) {
+                throw new IllegalArgumentException(String.format("Unknown column '%s'", column));
+            }
+            this.varied[index] = true;
+        }
+        this.maxFactor = maxFactor;
+
+        final int size = Integer.highestOneBit(Math.max(1, cacheSize - 1)) << 1;
+        this.cache = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Get the payload of a record.
+     *
+     * @param row the row of the record
+     * @return the payload, shared with all other callers
+     */
+    public Buffer encode(final int row) {
+        final int slot = row & this.mask;
+
+        final Entry entry = this.cache.get(slot);
+        if (entry != null && entry.row == row && entry.payload != null) {
+            return entry.payload;
+        }
+
+        final Buffer payload = Buffer.buffer(encodeBytes(row));
+        this.cache.set(slot, new Entry(row, payload, null));
+        return payload;
+    }
+
+    /**
+     * Get the template of a record.
+     *
+     * @param row the row of the record
+     * @return the template, shared with all other callers
+     */
+    public PayloadTemplate template(final int row) {
+        final int slot = row & this.mask;
+
+        final Entry entry = this.cache.get(slot);
+        if (entry != null && entry.row == row && entry.template != null) {
+            return entry.template;
+        }
+
+        final PayloadTemplate template = encodeTemplate(row);
+        this.cache.set(slot, new Entry(row, null, template));
+        return template;
+    }
+
+    PayloadTemplate encodeTemplate(final int row) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(this.keys.length * 16);
+
+        final int[] offsets = new int[this.keys.length];
+        final int[] widths = new int[this.keys.length];
+        final double[] values = new double[this.keys.length];
+        int slots = 0;
+
+        final byte[] digits = new byte[32];
+
+        out.write('{');
+
+        boolean first = true;
+        for (int i = 0; i < this.keys.length; i++) {
+            final double value = this.dataset.getValue(i, row);
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+
+            out.write(this.keyBytes[i], 0, this.keyBytes[i].length);
+
+            if (!this.varied[i]) {
+                final byte[] number = formatValue(value).getBytes(UTF_8);
+                out.write(number, 0, number.length);
+                out.write('"');
+                continue;
+            }
+
+            // reserve enough space for the largest value the slot may get, and the closing quote
+
+            final int width = slotWidth(value);
+            final int length = PayloadPatcher.format(value, digits);
+
+            offsets[slots] = out.size();
+            widths[slots] = width;
+            values[slots] = value;
+            slots++;
+
+            out.write(digits, 0, length);
+            out.write('"');
+            for (int j = length + 1; j < width; j++) {
+                out.write(' ');
+            }
+        }
+
+        out.write('}');
+
+        return new PayloadTemplate(out.toByteArray(), Arrays.copyOf(offsets, slots), Arrays.copyOf(widths, slots),
+                Arrays.copyOf(values, slots));
+    }
+
+    private int slotWidth(final double value) {
+        final double bound = Math.ceil(Math.abs(value) * this.maxFactor) + 1;
+        if (bound >= 1e15) {
+            // formatted as zero
+            return 2;
+        }
+
+        int digits = 1;
+        for (long v = (long) bound / 10; v != 0; v /= 10) {
+            digits++;
+        }
+
+        // sign, integer digits, point, fraction digits, quote
+        return 1 + digits + 1 + PayloadPatcher.FRACTION_DIGITS + 1;
+    }
+
+    private static int indexOf(final Dataset dataset, final String column) {
+        for (int i = 0; i < dataset.getColumnCount(); i++) {
+            if (dataset.getColumn(i).equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    byte[] encodeBytes(final int row) {
+        final StringBuilder sb = new StringBuilder(this.keys.length * 16);
+
+        sb.append('{');
+
+        boolean first = true;
+        for (int i = 0; i < this.keys.length; i++) {
+            final double value = this.dataset.getValue(i, row);
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+
+            sb.append(this.keys[i]).append(formatValue(value)).append('"');
+        }
+
+        sb.append('}');
+
+        return sb.toString().getBytes(UTF_8);
+    }
+
+    private static String formatValue(final double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        } else {
+            return Double.toString(value);
+        }
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import java.util.Locale;
+
+/**
+ * Maps dataset timestamps to the monotonic clock of the JVM.
+ * <p>
+ * The virtual time of the replay advances {@code speed} times faster than the
+ * real time. A record is due when the virtual time reaches its timestamp.
+ * </p>
+ */
+public class ReplayClock {
+
+    /**
+     * What to do when the replay falls behind its schedule.
+     */
+    public enum CatchUp {
+        /**
+         * Replay overdue records as fast as possible, until the replay is back
+         * on schedule.
+         */
+        BURST,
+        /**
+         * Skip overdue records, continuing with the latest due record.
+         */
+        SKIP,
+        /**
+         * Shift the schedule by the lag, slowing down the replay.
+         */
+        STRETCH;
+
+        public static CatchUp parse(final String value, final CatchUp defaultValue) {
+            if (value == null || value.isEmpty()) {
+                return defaultValue;
+            }
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private final double nanosPerMilli;
+
+    private long originNanos;
+    private long originTimestamp;
+
+    /**
+     * Create a new clock.
+     *
+     * @param speed the speed factor of the replay, must be positive
+     */
+    public ReplayClock(final double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        }
+        this.nanosPerMilli = 1_000_000.0 / speed;
+    }
+
+    /**
+     * Make a timestamp due at a point in time.
+     *
+     * @param timestamp the timestamp of the dataset, in milliseconds
+     * @param nanos the point in time, see {@link System#nanoTime()}
+     */
+    public void reset(final long timestamp, final long nanos) {
+        this.originTimestamp = timestamp;
+        this.originNanos = nanos;
+    }
+
+    /**
+     * Get the point in time a timestamp is due.
+     *
+     * @param timestamp the timestamp of the dataset, in milliseconds
+     * @return the point in time, see {@link System#nanoTime()}
+     */
+    public long due(final long timestamp) {
+        return this.originNanos + toNanos(timestamp - this.originTimestamp);
+    }
+
+    /**
+     * Convert a duration of the dataset into real time.
+     *
+     * @param millis the duration in the dataset, in milliseconds
+     * @return the duration of the replay, in nanoseconds
+     */
+    public long toNanos(final long millis) {
+        return Math.round(millis * this.nanosPerMilli);
+    }
+
+    /**
+     * Delay all following records.
+     *
+     * @param nanos the delay, in nanoseconds
+     */
+    public void shift(final long nanos) {
+        this.originNanos += nanos;
+    }
+}
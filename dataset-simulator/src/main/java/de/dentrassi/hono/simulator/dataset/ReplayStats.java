@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.dentrassi.hono.demo.common.Counter;
+import de.dentrassi.hono.demo.common.Histogram;
+import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+import de.dentrassi.hono.demo.common.MetricsRegistry;
+
+/**
+ * Statistics of the replay, shared by all flows.
+ */
+public class ReplayStats {
+
+    private final Histogram lag;
+
+    private final AtomicInteger flows = new AtomicInteger();
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong stretched = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    private final Counter recordsTotal;
+    private final Counter skippedTotal;
+    private final Counter stretchedTotal;
+    private final Counter replayedTotal;
+
+    private long lastReport = System.nanoTime();
+
+    public ReplayStats() {
+        final MetricsRegistry registry = MetricsRegistry.getDefault();
+
+        this.lag = registry.histogram("dataset_replay_lag_ms",
+                "Time records were replayed after they were due, in milliseconds", new Histogram());
+        this.recordsTotal = registry.counter("dataset_replay_records_total", "Records replayed");
+        this.skippedTotal = registry.counter("dataset_replay_skipped_total", "Records skipped to catch up");
+        this.stretchedTotal = registry.counter("dataset_replay_stretched_ms_total",
+                "Time the schedule was shifted to catch up, in milliseconds");
+        this.replayedTotal = registry.counter("dataset_replay_dataset_ms_total",
+                "Dataset time replayed, in milliseconds");
+    }
+
+    /**
+     * Record a flow starting its replay.
+     */
+    public void started() {
+        this.flows.incrementAndGet();
+    }
+
+    /**
+     * Record a flow reaching the end of its replay.
+     */
+    public void ended() {
+        this.flows.decrementAndGet();
+    }
+
+    /**
+     * Record a replayed record.
+     *
+     * @param lag the time the record was replayed after it was due, in
+     *            nanoseconds
+     * @param duration the dataset time until the next record, in milliseconds
+     */
+    public void replayed(final long lag, final long duration) {
+        this.lag.record(TimeUnit.NANOSECONDS.toMillis(Math.max(0, lag)));
+        this.records.incrementAndGet();
+        this.replayed.addAndGet(duration);
+    }
+
+    /**
+     * Record a skipped record.
+     *
+     * @param duration the dataset time until the next record, in milliseconds
+     */
+    public void skipped(final long duration) {
+        this.skipped.incrementAndGet();
+        this.replayed.addAndGet(duration);
+    }
+
+    /**
+     * Record a shift of the schedule.
+     *
+     * @param nanos the shift, in nanoseconds
+     */
+    public void stretched(final long nanos) {
+        this.stretched.addAndGet(nanos);
+    }
+
+    /**
+     * Report and reset the stats.
+     *
+     * @param now the timestamp of the report
+     * @param metrics the metrics to report to, may be {@code null}
+     */
+    public synchronized void report(final Instant now, final InfluxDbMetrics metrics) {
+
+        final long nanos = System.nanoTime();
+        final long elapsed = Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos - this.lastReport));
+        this.lastReport = nanos;
+
+        final long records = this.records.getAndSet(0);
+        final long skipped = this.skipped.getAndSet(0);
+        final long stretched = TimeUnit.NANOSECONDS.toMillis(this.stretched.getAndSet(0));
+        final long replayed = this.replayed.getAndSet(0);
+        final int flows = this.flows.get();
+
+        this.recordsTotal.add(records);
+        this.skippedTotal.add(skipped);
+        this.stretchedTotal.add(stretched);
+        this.replayedTotal.add(replayed);
+
+        // the effective speed factor of a flow, comparable to the configured speed
+
+        final double rate = flows > 0 ? (double) replayed / (double) elapsed / flows : 0.0;
+
+        final Histogram.Snapshot snapshot = this.lag.snapshot();
+
+        System.out.format("%s: Replay - flows: %s, records: %s, skipped: %s, stretched: %s ms, rate: %.1f, lag p99: %s ms, max: %s ms%n",
+                now, flows, records, skipped, stretched, rate, snapshot.getValueAt(0.99), snapshot.getMax());
+
+        if (metrics != null) {
+            final Map<String, Number> values = snapshot.toValues();
+            values.put("flows", flows);
+            values.put("records", records);
+            values.put("skipped", skipped);
+            values.put("stretched", stretched);
+            values.put("rate", rate);
+            metrics.updateStats(now, "dataset-replay", values);
+        }
+    }
+}
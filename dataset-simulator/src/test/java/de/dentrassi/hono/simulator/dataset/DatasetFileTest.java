@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.dataset;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DatasetFileTest {
+
+    /**
+     * The size of the fixed part of the header: magic, rows, columns, first
+     * timestamp.
+     */
+    private static final int HEADER = 4 + 4 + 4 + 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Dataset dataset(final String[] columns, final long[] timestamps, final double[]... values) {
+        final Dataset.Column[] result = new Dataset.Column[values.length];
+        for (int i = 0; i < values.length; i++) {
+            final double[] column = values[i];
+            result[i] = row -> column[row];
+        }
+        return new Dataset(columns, timestamps, result);
+    }
+
+    private Path roundTrip(final Dataset dataset) throws IOException {
+        final Path file = this.folder.newFile("dataset.hds").toPath();
+        DatasetFile.write(dataset, file);
+        assertTrue(DatasetFile.isDatasetFile(file));
+        return file;
+    }
+
+    private static void assertDataset(final Dataset expected, final Dataset actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.getColumnCount(), actual.getColumnCount());
+
+        for (int i = 0; i < expected.getColumnCount(); i++) {
+            assertEquals(expected.getColumn(i), actual.getColumn(i));
+        }
+
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals("Timestamp #" + row, expected.getTimestamp(row), actual.getTimestamp(row));
+            for (int i = 0; i < expected.getColumnCount(); i++) {
+                // NaN equals NaN, but negative zero differs from zero
+                assertEquals(String.format("Value #%s/%s", row, i),
+                        Double.valueOf(expected.getValue(i, row)), Double.valueOf(actual.getValue(i, row)));
+            }
+        }
+    }
+
+    @Test
+    public void testFloatAndDoubleColumns() throws IOException {
+        final long[] timestamps = { 1_333_263_600_000L, 1_333_263_660_000L, 1_333_263_720_000L };
+
+        final double[] floats = { 1.5, Double.NaN, -0.0 };
+        final double[] doubles = { 0.1, -1e300, Double.NaN };
+        final double[] tiny = { Double.MIN_VALUE, 16_777_217, 3 }; // neither is exact as float
+
+        final Dataset dataset = dataset(new String[] { "P", "Q", "S" }, timestamps, floats, doubles, tiny);
+        final Path file = roundTrip(dataset);
+
+        // the first column of three floats needs padding, the next one must still be aligned
+
+        final byte[] data = Files.readAllBytes(file);
+        assertEquals('F', data[HEADER]);
+        assertEquals('D', data[HEADER + 4]);
+        assertEquals('D', data[HEADER + 8]);
+
+        final int header = (HEADER + 3 * (1 + 2 + 1) + 7) / 8 * 8; // type, name length and name per column
+        assertEquals(header + 3 * Long.BYTES + 16 + 24 + 24, data.length);
+
+        assertDataset(dataset, DatasetFile.open(file));
+    }
+
+    @Test
+    public void testTimestamps() throws IOException {
+
+        // irregular deltas, including going back in time
+
+        final long[] timestamps = { 1_000, 1_000, 61_000, 31_000, Long.MAX_VALUE / 2, 0 };
+        final double[] values = new double[timestamps.length];
+        Arrays.fill(values, 1);
+
+        final Dataset dataset = dataset(new String[] { "P" }, timestamps, values);
+        assertDataset(dataset, DatasetFile.open(roundTrip(dataset)));
+    }
+
+    @Test
+    public void testColumnNames() throws IOException {
+        final Dataset dataset = dataset(new String[] { "Leistung äöü", "" }, new long[] { 0 }, new double[] { 1 },
+                new double[] { 2 });
+        assertDataset(dataset, DatasetFile.open(roundTrip(dataset)));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        final Dataset dataset = dataset(new String[] { "P", "Q" }, new long[0], new double[0], new double[0]);
+        assertDataset(dataset, DatasetFile.open(roundTrip(dataset)));
+    }
+
+    @Test
+    public void testLoadSelectsColumns() throws IOException {
+        final Dataset dataset = dataset(new String[] { "P", "Q", "S" }, new long[] { 0, 60_000 },
+                new double[] { 1, 2 }, new double[] { 3, 4 }, new double[] { 5, 6 });
+        final Path file = roundTrip(dataset);
+
+        final Dataset result = Dataset.load(file, "UNIX_TS", TimeUnit.SECONDS, new String[] { "S", "P" });
+
+        assertEquals(2, result.getColumnCount());
+        assertEquals("S", result.getColumn(0));
+        assertEquals("P", result.getColumn(1));
+        assertEquals(60_000, result.getTimestamp(1));
+        assertEquals(6, result.getValue(0, 1), 0);
+        assertEquals(2, result.getValue(1, 1), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadMissingColumn() throws IOException {
+        final Dataset dataset = dataset(new String[] { "P" }, new long[] { 0 }, new double[] { 1 });
+        Dataset.load(roundTrip(dataset), "UNIX_TS", TimeUnit.SECONDS, new String[] { "P", "Q" });
+    }
+
+    @Test
+    public void testNotADatasetFile() throws IOException {
+        final Path csv = this.folder.newFile("dataset.csv").toPath();
+        Files.write(csv, "UNIX_TS,P\n0,1\n".getBytes(UTF_8));
+        assertFalse(DatasetFile.isDatasetFile(csv));
+
+        final Path tiny = this.folder.newFile("tiny").toPath();
+        Files.write(tiny, new byte[] { 0x48, 0x44 });
+        assertFalse(DatasetFile.isDatasetFile(tiny));
+    }
+}
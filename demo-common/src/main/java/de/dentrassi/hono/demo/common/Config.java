@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.demo.common;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of configuration values, shared by all components.
+ */
+public final class Config {
+
+    private Config() {
+    }
+
+    /**
+     * Parse a duration.
+     * <p>
+     * Accepts a plain number of milliseconds, a number followed by one of the
+     * units {@code ms}, {@code s}, {@code m}, {@code h}, or an ISO-8601
+     * duration like {@code PT1M30S}.
+     * </p>
+     *
+     * @param value the value to parse, may be {@code null}
+     * @return the duration in milliseconds, zero if the value was {@code null}
+     *         or empty
+     */
+    public static long parseDuration(String value) {
+        if (value == null) {
+            return 0;
+        }
+
+        value = value.trim();
+        if (value.isEmpty()) {
+            return 0;
+        }
+
+        if (value.charAt(0) == 'P' || value.charAt(0) == 'p') {
+            return Duration.parse(value).toMillis();
+        }
+
+        if (value.endsWith("ms")) {
+            return Long.parseLong(value.substring(0, value.length() - 2).trim());
+        }
+
+        final char unit = value.charAt(value.length() - 1);
+        final String number = value.substring(0, value.length() - 1).trim();
+
+        switch (unit) {
+        case 's':
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(number));
+        case 'm':
+            return TimeUnit.MINUTES.toMillis(Long.parseLong(number));
+        case 'h':
+            return TimeUnit.HOURS.toMillis(Long.parseLong(number));
+        default:
+            return Long.parseLong(value);
+        }
+    }
+
+    /**
+     * Parse a comma separated list.
+     * <p>
+     * Entries are trimmed, empty entries are dropped.
+     * </p>
+     *
+     * @param value the value to parse, may be {@code null}
+     * @return the unmodifiable list of entries, never {@code null}
+     */
+    public static List<String> parseList(final String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<String> result = new ArrayList<>();
+        for (final String s : value.split(",")) {
+            if (!s.trim().isEmpty()) {
+                result.add(s.trim());
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Parse a comma separated set.
+     * <p>
+     * Like {@link #parseList(String)}, but without duplicates, keeping the
+     * order of the entries.
+     * </p>
+     *
+     * @param value the value to parse, may be {@code null}
+     * @return the unmodifiable set of entries, never {@code null}
+     */
+    public static Set<String> parseSet(final String value) {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(parseList(value)));
+    }
+}
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.demo.common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonic counter.
+ */
+public final class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        this.value.increment();
+    }
+
+    public void add(final long amount) {
+        this.value.add(amount);
+    }
+
+    public long get() {
+        return this.value.sum();
+    }
+}
@@ -0,0 +1,41 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.demo.common;
+
+/**
+ * The increase of a {@link Counter} between two reads.
+ * <p>
+ * For reporting per interval values, without resetting the counter. Not
+ * thread safe, meant to be read by a single reporting thread.
+ * </p>
+ */
+public final class Delta {
+
+    private final Counter counter;
+
+    private long last;
+
+    public Delta(final Counter counter) {
+        this.counter = counter;
+    }
+
+    /**
+     * Get the increase since the last call.
+     *
+     * @return the increase of the counter
+     */
+    public long next() {
+        final long value = this.counter.get();
+        final long result = value - this.last;
+        this.last = value;
+        return result;
+    }
+}
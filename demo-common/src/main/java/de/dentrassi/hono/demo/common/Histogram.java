@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.demo.common;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non-negative long values.
+ * <p>
+ * Values are recorded in log-linear buckets: values below 64 are exact, larger
+ * values get recorded with a relative error of about 3%. Taking a snapshot
+ * resets the histogram, so each snapshot covers one reporting interval.
+ * </p>
+ * <p>
+ * Values taken by a snapshot are added to a running total, which never gets
+ * reset, see {@link #cumulative()}.
+ * </p>
+ */
+public class Histogram {
+
+    private static final int LINEAR = 64;
+    private static final int SUB_BUCKETS = 32;
+    private static final int SUB_BITS = 5;
+    private static final int LINEAR_BITS = 6;
+
+    private static final int BUCKETS = LINEAR + (63 - LINEAR_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    // only accessed while holding the lock of the histogram
+
+    private final long[] totalCounts = new long[BUCKETS];
+    private long totalSum;
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+
+        this.counts.incrementAndGet(index(value));
+        this.sum.addAndGet(value);
+
+        long current;
+        while (value > (current = this.max.get())) {
+            if (this.max.compareAndSet(current, value)) {
+                break;
+            }
+        }
+    }
+
+    static int index(final long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+
+        return LINEAR + (exponent - LINEAR_BITS) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(final int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+
+        final int exponent = (index - LINEAR) / SUB_BUCKETS + LINEAR_BITS;
+        final int sub = (index - LINEAR) % SUB_BUCKETS;
+
+        return (1L << exponent) + ((long) (sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    @FunctionalInterface
+    public interface BucketConsumer {
+        void accept(long upperBound, long count);
+    }
+
+    /**
+     * A snapshot of a histogram.
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(final long[] counts, final long count, final long sum, final long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getSum() {
+            return this.sum;
+        }
+
+        public long getMax() {
+            return this.max;
+        }
+
+        public double getMean() {
+            return this.count == 0 ? 0 : (double) this.sum / (double) this.count;
+        }
+
+        /**
+         * Get the value at a quantile.
+         *
+         * @param quantile the quantile, between 0 and 1
+         * @return the upper bound of the bucket holding the quantile, but never
+         *         more than the maximum
+         */
+        public long getValueAt(final double quantile) {
+            final long total = this.count;
+            if (total == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+
+            long seen = 0;
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), this.max);
+                }
+            }
+
+            return this.max;
+        }
+
+        /**
+         * Iterate over the cumulative counts, at each power of two.
+         * <p>
+         * The consumer is called with the number of values less than or equal
+         * to {@code 2^n - 1}, up to the first bound which covers all values.
+         * </p>
+         *
+         * @param consumer the consumer of the bound and the count
+         */
+        public void forEachBucket(final BucketConsumer consumer) {
+            long seen = 0;
+
+            for (int i = 0; i < this.counts.length; i++) {
+                seen += this.counts[i];
+
+                final long bound = upperBound(i);
+                if ((bound & bound + 1) != 0) {
+                    // not the last bucket of a power of two
+                    continue;
+                }
+
+                consumer.accept(bound, seen);
+
+                if (seen >= this.count) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Get the commonly reported values, for reporting to InfluxDB.
+         *
+         * @return a new map of values
+         */
+        public Map<String, Number> toValues() {
+            final Map<String, Number> result = new HashMap<>(8);
+
+            result.put("count", this.count);
+            result.put("mean", getMean());
+            result.put("max", this.max);
+            result.put("p50", getValueAt(0.5));
+            result.put("p90", getValueAt(0.9));
+            result.put("p99", getValueAt(0.99));
+            result.put("p999", getValueAt(0.999));
+
+            return result;
+        }
+    }
+
+    /**
+     * Take a snapshot and reset the histogram.
+     * <p>
+     * Values recorded concurrently may be accounted to either this or the
+     * next snapshot.
+     * </p>
+     *
+     * @return the snapshot
+     */
+    public synchronized Snapshot snapshot() {
+        final long[] counts = new long[BUCKETS];
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.counts.getAndSet(i, 0);
+            count += counts[i];
+            this.totalCounts[i] += counts[i];
+        }
+
+        final long sum = this.sum.getAndSet(0);
+        final long max = this.max.getAndSet(0);
+
+        this.totalSum += sum;
+
+        return new Snapshot(counts, count, sum, max);
+    }
+
+    /**
+     * Get all values recorded since the histogram was created, without
+     * resetting it.
+     * <p>
+     * The maximum of the returned snapshot only covers the current interval.
+     * </p>
+     *
+     * @return the snapshot
+     */
+    public synchronized Snapshot cumulative() {
+        final long[] counts = new long[BUCKETS];
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.totalCounts[i] + this.counts.get(i);
+            count += counts[i];
+        }
+
+        return new Snapshot(counts, count, this.totalSum + this.sum.get(), this.max.get());
+    }
+}
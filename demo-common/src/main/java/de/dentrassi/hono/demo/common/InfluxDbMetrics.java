@@ -10,19 +10,41 @@
  *******************************************************************************/
 package de.dentrassi.hono.demo.common;
 
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonMap;
 
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.influxdb.InfluxDB;
 import org.influxdb.InfluxDBFactory;
+import org.influxdb.dto.BatchPoints;
 import org.influxdb.dto.Point;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Reports metrics to InfluxDB.
+ * <p>
+ * Recording a metric never blocks. Points are put into a bounded queue, and
+ * written by a background thread, in a single batch per interval. Connecting
+ * to InfluxDB is done by the background thread as well, and retried until it
+ * succeeds. When InfluxDB cannot keep up, or is not reachable, the oldest
+ * points get dropped.
+ * </p>
+ * <p>
+ * Dropped points are counted in the registry, and written with each batch,
+ * as the field {@code dropped} of the measurement {@code metrics}.
+ * </p>
+ */
 public class InfluxDbMetrics {
 
     private static final Logger logger = LoggerFactory.getLogger(InfluxDbMetrics.class);
@@ -37,21 +59,52 @@ public class InfluxDbMetrics {
         HOSTNAME = h;
     }
 
-    private final InfluxDB db;
+    private final String uri;
+    private final String username;
+    private final String password;
+    private final String databaseName;
+
+    private final int queueSize = Integer.parseInt(System.getenv().getOrDefault("METRICS_QUEUE_SIZE", "10000"));
+
+    private final long flushInterval = Config
+            .parseDuration(System.getenv().getOrDefault("METRICS_FLUSH_INTERVAL", "1000"));
+
+    private final Queue<Point> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Counter dropped = MetricsRegistry.getDefault().counter("metrics_dropped_points_total",
+            "Metric points dropped before being written to InfluxDB");
+
+    private final ScheduledExecutorService writer;
+
+    // only accessed by the writer thread
+
+    private InfluxDB db;
+    private final ArrayDeque<Point> backlog = new ArrayDeque<>();
+    private final Delta droppedSinceFlush = new Delta(this.dropped);
+    private boolean failing;
+    private long droppedBeforeFailing;
 
     public InfluxDbMetrics(final String uri, final String username, final String password,
             final String databaseName) {
 
         logger.info("InfluxDB - metrics - URL: {}", uri);
         logger.info("InfluxDB -      Database: {}", databaseName);
-
-        this.db = InfluxDBFactory.connect(uri, username, password);
-
-        if (!this.db.databaseExists(databaseName)) {
-            this.db.createDatabase(databaseName);
-        }
-
-        this.db.setDatabase(databaseName);
+        logger.info("InfluxDB -      Queue size: {}, flush interval: {} ms", this.queueSize, this.flushInterval);
+
+        this.uri = uri;
+        this.username = username;
+        this.password = password;
+        this.databaseName = databaseName;
+
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "influxdb-metrics");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+
+        this.writer.scheduleWithFixedDelay(this::flush, this.flushInterval, this.flushInterval,
+                TimeUnit.MILLISECONDS);
     }
 
     public void updateStats(final Instant timestamp, final String measurement, final String name, final Number value) {
@@ -59,17 +112,111 @@ public class InfluxDbMetrics {
     }
 
     public void updateStats(final Instant timestamp, final String measurement, final Map<String, Number> values) {
+        updateStats(timestamp, measurement, emptyMap(), values);
+    }
+
+    public void updateStats(final Instant timestamp, final String measurement, final Map<String, String> tags,
+            final Map<String, Number> values) {
 
         final Point.Builder p = Point.measurement(measurement)
                 .time(timestamp.toEpochMilli(), TimeUnit.MILLISECONDS);
 
+        p.tag(tags);
+
         for (final Map.Entry<String, Number> entry : values.entrySet()) {
             p.addField(entry.getKey(), entry.getValue());
         }
 
         p.tag("host", HOSTNAME);
 
-        this.db.write(p.build());
+        this.queue.add(p.build());
+
+        if (this.queued.incrementAndGet() > this.queueSize && this.queue.poll() != null) {
+            this.queued.decrementAndGet();
+            this.dropped.increment();
+        }
+    }
+
+    /**
+     * Flush pending points and stop the background writer.
+     */
+    public void close() {
+        this.writer.shutdown();
+        try {
+            if (this.writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                flush();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush() {
+        Point point;
+        while ((point = this.queue.poll()) != null) {
+            this.queued.decrementAndGet();
+            this.backlog.add(point);
+        }
+
+        // points which could not be written before are kept, as long as they fit
+
+        while (this.backlog.size() > this.queueSize) {
+            this.backlog.poll();
+            this.dropped.increment();
+        }
+
+        if (this.backlog.isEmpty()) {
+            return;
+        }
+
+        this.backlog.add(Point.measurement("metrics")
+                .time(System.currentTimeMillis(), TimeUnit.MILLISECONDS)
+                .tag("host", HOSTNAME)
+                .addField("dropped", this.droppedSinceFlush.next())
+                .addField("queued", this.backlog.size())
+                .build());
+
+        try {
+            if (this.db == null) {
+                this.db = connect();
+            }
+
+            final BatchPoints.Builder batch = BatchPoints.database(this.databaseName);
+            for (final Point p : this.backlog) {
+                batch.point(p);
+            }
+            this.db.write(batch.build());
+
+            this.backlog.clear();
+
+            if (this.failing) {
+                this.failing = false;
+                logger.info("Writing metrics recovered, dropped {} points",
+                        this.dropped.get() - this.droppedBeforeFailing);
+            }
+
+        } catch (final Exception e) {
+            if (!this.failing) {
+                this.failing = true;
+                this.droppedBeforeFailing = this.dropped.get();
+                logger.warn("Failed to write metrics, keeping the latest {} points", this.queueSize, e);
+            }
+        }
+    }
+
+    private InfluxDB connect() {
+        final InfluxDB db = InfluxDBFactory.connect(this.uri, this.username, this.password);
+
+        try {
+            if (!db.databaseExists(this.databaseName)) {
+                db.createDatabase(this.databaseName);
+            }
+        } catch (final RuntimeException e) {
+            db.close();
+            throw e;
+        }
+
+        return db;
     }
 
 }
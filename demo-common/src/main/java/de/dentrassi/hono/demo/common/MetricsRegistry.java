@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.demo.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A registry of in-process metrics, which can be written in the Prometheus
+ * text format.
+ * <p>
+ * Metrics are registered once, by name and label pairs. Updating a metric does
+ * not involve the registry, and writing the metrics only allocates the output.
+ * </p>
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private enum Type {
+        COUNTER("counter"), GAUGE("gauge"), HISTOGRAM("histogram");
+
+        private final String name;
+
+        private Type(final String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Family {
+
+        private final String name;
+        private final String help;
+        private final Type type;
+        private final List<Child> children = new CopyOnWriteArrayList<>();
+
+        private Family(final String name, final String help, final Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private static final class Child {
+
+        private final String labels;
+        private final Object metric;
+
+        private Child(final String labels, final Object metric) {
+            this.labels = labels;
+            this.metric = metric;
+        }
+    }
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    private final List<Family> order = new CopyOnWriteArrayList<>();
+
+    /**
+     * Get the registry shared by the whole application.
+     *
+     * @return the default registry
+     */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get or create a counter.
+     *
+     * @param name the name of the metric
+     * @param help the description of the metric
+     * @param labels pairs of label names and values
+     * @return the counter, the same instance for the same name and labels
+     */
+    public Counter counter(final String name, final String help, final String... labels) {
+        return (Counter) register(name, help, Type.COUNTER, labels, new Counter());
+    }
+
+    /**
+     * Register a gauge.
+     * <p>
+     * The supplier gets called every time the metrics get written. Registering
+     * a gauge with the same name and labels again has no effect.
+     * </p>
+     *
+     * @param name the name of the metric
+     * @param help the description of the metric
+     * @param value the supplier of the current value
+     * @param labels pairs of label names and values
+     */
+    public void gauge(final String name, final String help, final DoubleSupplier value, final String... labels) {
+        register(name, help, Type.GAUGE, labels, value);
+    }
+
+    /**
+     * Register a histogram.
+     * <p>
+     * The cumulative values of the histogram are written, so the histogram may
+     * still be reset by taking snapshots for other reporters.
+     * </p>
+     *
+     * @param name the name of the metric
+     * @param help the description of the metric
+     * @param histogram the histogram
+     * @param labels pairs of label names and values
+     * @return the histogram which is registered, which may be a different
+     *         instance when the name and labels were already registered
+     */
+    public Histogram histogram(final String name, final String help, final Histogram histogram,
+            final String... labels) {
+        return (Histogram) register(name, help, Type.HISTOGRAM, labels, histogram);
+    }
+
+    private Object register(final String name, final String help, final Type type, final String[] labels,
+            final Object metric) {
+
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be pairs of names and values");
+        }
+
+        final Family family = this.families.computeIfAbsent(name, n -> {
+            final Family result = new Family(n, help, type);
+            this.order.add(result);
+            return result;
+        });
+
+        if (family.type != type) {
+            throw new IllegalArgumentException(
+                    String.format("Metric '%s' is already registered as %s", name, family.type.name));
+        }
+
+        final String labelString = formatLabels(labels);
+
+        synchronized (family) {
+            for (final Child child : family.children) {
+                if (child.labels.equals(labelString)) {
+                    return child.metric;
+                }
+            }
+
+            family.children.add(new Child(labelString, metric));
+            return metric;
+        }
+    }
+
+    private static String formatLabels(final String[] labels) {
+        final StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"");
+            escape(sb, labels[i + 1]);
+            sb.append('"');
+        }
+
+        return sb.toString();
+    }
+
+    private static void escape(final StringBuilder sb, final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * Write all metrics in the Prometheus text format, version 0.0.4.
+     *
+     * @param sb the builder to append to
+     */
+    public void write(final StringBuilder sb) {
+        for (final Family family : this.order) {
+
+            sb.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            sb.append("# TYPE ").append(family.name).append(' ').append(family.type.name).append('\n');
+
+            for (final Child child : family.children) {
+                switch (family.type) {
+                case COUNTER:
+                    sample(sb, family.name, "", child.labels, null);
+                    sb.append(((Counter) child.metric).get()).append('\n');
+                    break;
+                case GAUGE:
+                    sample(sb, family.name, "", child.labels, null);
+                    value(sb, ((DoubleSupplier) child.metric).getAsDouble());
+                    sb.append('\n');
+                    break;
+                case HISTOGRAM:
+                    writeHistogram(sb, family.name, child.labels, ((Histogram) child.metric).cumulative());
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void writeHistogram(final StringBuilder sb, final String name, final String labels,
+            final Histogram.Snapshot snapshot) {
+
+        snapshot.forEachBucket((bound, count) -> {
+            sample(sb, name, "_bucket", labels, Long.toString(bound));
+            sb.append(count).append('\n');
+        });
+
+        sample(sb, name, "_bucket", labels, "+Inf");
+        sb.append(snapshot.getCount()).append('\n');
+
+        sample(sb, name, "_sum", labels, null);
+        sb.append(snapshot.getSum()).append('\n');
+
+        sample(sb, name, "_count", labels, null);
+        sb.append(snapshot.getCount()).append('\n');
+    }
+
+    private static void sample(final StringBuilder sb, final String name, final String suffix, final String labels,
+            final String le) {
+
+        sb.append(name).append(suffix);
+
+        if (labels.isEmpty() && le == null) {
+            sb.append(' ');
+            return;
+        }
+
+        sb.append('{').append(labels);
+        if (le != null) {
+            if (!labels.isEmpty()) {
+                sb.append(',');
+            }
+            sb.append("le=\"").append(le).append('"');
+        }
+        sb.append("} ");
+    }
+
+    private static void value(final StringBuilder sb, final double value) {
+        if (Double.isNaN(value)) {
+            sb.append("NaN");
+        } else if (Double.isInfinite(value)) {
+            sb.append(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            sb.append((long) value);
+        } else {
+            sb.append(value);
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.demo.common;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics of a registry on {@code /metrics}, for scraping by
+ * Prometheus.
+ * <p>
+ * Requests are served by a single thread, as scraping happens rarely.
+ * </p>
+ */
+public class MetricsServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final MetricsRegistry registry;
+
+    private final HttpServer server;
+
+    private int lastSize = 4096;
+
+    public MetricsServer(final int port, final MetricsRegistry registry) throws IOException {
+        this.registry = registry;
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext("/metrics", this::handle);
+        this.server.start();
+
+        logger.info("Serving metrics on port {}", this.server.getAddress().getPort());
+    }
+
+    /**
+     * Start serving the default registry, if {@code METRICS_PORT} is set.
+     *
+     * @return the server, or {@code null} if no port is configured
+     */
+    public static MetricsServer start() {
+        final String port = System.getenv("METRICS_PORT");
+        if (port == null || port.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return new MetricsServer(Integer.parseInt(port), MetricsRegistry.getDefault());
+        } catch (final IOException e) {
+            logger.warn("Failed to start metrics server on port {}", port, e);
+            return null;
+        }
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            final StringBuilder sb = new StringBuilder(this.lastSize);
+            this.registry.write(sb);
+            this.lastSize = sb.length() + 256;
+
+            final byte[] data = sb.toString().getBytes(UTF_8);
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, data.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(data);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public void close() {
+        this.server.stop(0);
+    }
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.demo.common;
+
+/**
+ * The payload sent by the simulators.
+ * <p>
+ * When stamping is enabled, the payload carries the time it was sent, in
+ * milliseconds since the epoch, and a per device sequence number. This allows
+ * the consumer to measure the end-to-end latency, assuming that the clocks of
+ * the simulators and the consumer are synchronized (e.g. by NTP).
+ * </p>
+ */
+public final class TelemetryPayload {
+
+    public static final String FIELD_TIMESTAMP = "_ts";
+    public static final String FIELD_SEQUENCE = "_seq";
+
+    /**
+     * Whether the simulators stamp their payload.
+     */
+    public static final boolean STAMP = Boolean.parseBoolean(System.getenv().getOrDefault("STAMP_PAYLOAD", "false"));
+
+    /**
+     * The fixed payload, used when stamping is disabled.
+     */
+    public static final String DEFAULT = "{foo: 42}";
+
+    private TelemetryPayload() {
+    }
+
+    /**
+     * Create a stamped JSON payload.
+     *
+     * @param timestamp the send time, in milliseconds since the epoch
+     * @param sequence the sequence number of the message
+     * @return the payload
+     */
+    public static String stamped(final long timestamp, final long sequence) {
+        return new StringBuilder(64)
+                .append("{\"foo\":42,\"")
+                .append(FIELD_TIMESTAMP).append("\":").append(timestamp)
+                .append(",\"")
+                .append(FIELD_SEQUENCE).append("\":").append(sequence)
+                .append('}')
+                .toString();
+    }
+
+}
@@ -14,16 +14,17 @@
  * limitations under the License.
  */
 
-package de.dentrassi.flow.component.mqtt.internal.io.vertx.mqtt;
+package de.dentrassi.hono.demo.mqtt;
 
 import java.util.Map;
 
-import de.dentrassi.flow.component.mqtt.internal.io.vertx.mqtt.impl.MqttClientImpl;
+import de.dentrassi.hono.demo.mqtt.impl.MqttClientImpl;
 import io.netty.handler.codec.mqtt.MqttQoS;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetClient;
 import io.vertx.mqtt.MqttClientOptions;
 import io.vertx.mqtt.messages.MqttConnAckMessage;
 import io.vertx.mqtt.messages.MqttPublishMessage;
@@ -51,6 +52,28 @@ public interface MqttClient {
         return new MqttClientImpl(vertx, options);
     }
 
+    /**
+     * Return an MQTT client instance, sharing the network client and options
+     * with other instances
+     *
+     * @param client
+     *            the network client to connect with, created from the options
+     * @param options
+     *            MQTT client options, must not be modified afterwards
+     * @param clientId
+     *            the client identifier, may be {@code null} if it gets
+     *            generated
+     * @param username
+     *            the username, may be {@code null}
+     * @param password
+     *            the password, may be {@code null}
+     * @return MQTT client instance
+     */
+    static MqttClient create(final NetClient client, final MqttClientOptions options, final String clientId,
+            final String username, final String password) {
+        return new MqttClientImpl(client, options, clientId, username, password);
+    }
+
     /**
      * Return an MQTT client instance using the default options
      *
@@ -14,7 +14,7 @@
  * limitations under the License.
  */
 
-package de.dentrassi.flow.component.mqtt.internal.io.vertx.mqtt.impl;
+package de.dentrassi.hono.demo.mqtt.impl;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -14,7 +14,7 @@
  * limitations under the License.
  */
 
-package de.dentrassi.flow.component.mqtt.internal.io.vertx.mqtt.impl;
+package de.dentrassi.hono.demo.mqtt.impl;
 
 import static io.netty.handler.codec.mqtt.MqttQoS.AT_LEAST_ONCE;
 import static io.netty.handler.codec.mqtt.MqttQoS.AT_MOST_ONCE;
@@ -32,7 +32,7 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import de.dentrassi.flow.component.mqtt.internal.io.vertx.mqtt.MqttClient;
+import de.dentrassi.hono.demo.mqtt.MqttClient;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelDuplexHandler;
@@ -95,6 +95,10 @@ public class MqttClientImpl implements MqttClient {
     private MqttClientConnection connection;
     private final NetClient client;
 
+    private String clientId;
+    private final String username;
+    private final String password;
+
     // handler to call when a publish is complete
     Handler<Integer> publishCompletionHandler;
     // handler to call when a unsubscribe request is completed
@@ -128,9 +132,9 @@ public class MqttClientImpl implements MqttClient {
     // total amount of unacknowledged packets
     private int countInflightQueue;
 
-    // patterns for topics validation
-    private final Pattern validTopicNamePattern = Pattern.compile("^[^#+\\u0000]+$");
-    private final Pattern validTopicFilterPattern = Pattern
+    // patterns for topics validation, shared by all clients
+    private static final Pattern validTopicNamePattern = Pattern.compile("^[^#+\\u0000]+$");
+    private static final Pattern validTopicFilterPattern = Pattern
             .compile("^(#|((\\+(?![^/]))?([^#+]*(/\\+(?![^/]))?)*(/#)?))$");
 
     private boolean isConnected;
@@ -144,8 +148,36 @@ public class MqttClientImpl implements MqttClient {
      *            MQTT client options
      */
     public MqttClientImpl(final Vertx vertx, final MqttClientOptions options) {
-        this.client = vertx.createNetClient(options);
+        this(vertx.createNetClient(options), options, options.getClientId(), options.getUsername(),
+                options.getPassword());
+    }
+
+    /**
+     * Constructor, sharing the network client and options with other clients
+     * <p>
+     * The options must not be modified afterwards. Only the client identifier
+     * and credentials are specific to this client.
+     * </p>
+     *
+     * @param client
+     *            the network client to connect with
+     * @param options
+     *            MQTT client options
+     * @param clientId
+     *            the client identifier, may be {@code null} if it gets
+     *            generated
+     * @param username
+     *            the username, may be {@code null}
+     * @param password
+     *            the password, may be {@code null}
+     */
+    public MqttClientImpl(final NetClient client, final MqttClientOptions options, final String clientId,
+            final String username, final String password) {
+        this.client = client;
         this.options = options;
+        this.clientId = clientId;
+        this.username = username;
+        this.password = password;
     }
 
     /**
@@ -190,8 +222,8 @@ public class MqttClientImpl implements MqttClient {
                 this.connectHandler = connectHandler;
 
                 if (this.options.isAutoGeneratedClientId()
-                        && (this.options.getClientId() == null || this.options.getClientId().isEmpty())) {
-                    this.options.setClientId(generateRandomClientId());
+                        && (this.clientId == null || this.clientId.isEmpty())) {
+                    this.clientId = generateRandomClientId();
                 }
 
                 initChannel(pipeline);
@@ -212,8 +244,8 @@ public class MqttClientImpl implements MqttClient {
                 final MqttConnectVariableHeader variableHeader = new MqttConnectVariableHeader(
                         PROTOCOL_NAME,
                         PROTOCOL_VERSION,
-                        this.options.hasUsername(),
-                        this.options.hasPassword(),
+                        this.username != null,
+                        this.password != null,
                         this.options.isWillRetain(),
                         this.options.getWillQoS(),
                         this.options.isWillFlag(),
@@ -221,13 +253,13 @@ public class MqttClientImpl implements MqttClient {
                         this.options.getKeepAliveTimeSeconds());
 
                 final MqttConnectPayload payload = new MqttConnectPayload(
-                        this.options.getClientId() == null ? "" : this.options.getClientId(),
+                        this.clientId == null ? "" : this.clientId,
                         this.options.getWillTopic(),
                         this.options.getWillMessage() != null
                                 ? this.options.getWillMessage().getBytes(StandardCharsets.UTF_8)
                                 : null,
-                        this.options.hasUsername() ? this.options.getUsername() : null,
-                        this.options.hasPassword() ? this.options.getPassword().getBytes() : null);
+                        this.username,
+                        this.password != null ? this.password.getBytes() : null);
 
                 final io.netty.handler.codec.mqtt.MqttMessage connect = MqttMessageFactory.newMessage(fixedHeader,
                         variableHeader, payload);
@@ -323,7 +355,8 @@ public class MqttClientImpl implements MqttClient {
 
         final MqttPublishVariableHeader variableHeader = new MqttPublishVariableHeader(topic, nextMessageId());
 
-        final ByteBuf buf = Unpooled.copiedBuffer(payload.getBytes());
+        // getBytes() already returns a copy
+        final ByteBuf buf = Unpooled.wrappedBuffer(payload.getBytes());
 
         final io.netty.handler.codec.mqtt.MqttMessage publish = MqttMessageFactory.newMessage(fixedHeader,
                 variableHeader, buf);
@@ -544,7 +577,7 @@ public class MqttClientImpl implements MqttClient {
 
     @Override
     public String clientId() {
-        return this.options.getClientId();
+        return this.clientId;
     }
 
     @Override
@@ -921,7 +954,7 @@ public class MqttClientImpl implements MqttClient {
             return false;
         }
 
-        final Matcher matcher = this.validTopicNamePattern.matcher(topicName);
+        final Matcher matcher = validTopicNamePattern.matcher(topicName);
         return matcher.find();
     }
 
@@ -937,7 +970,7 @@ public class MqttClientImpl implements MqttClient {
             return false;
         }
 
-        final Matcher matcher = this.validTopicFilterPattern.matcher(topicFilter);
+        final Matcher matcher = validTopicFilterPattern.matcher(topicFilter);
         return matcher.find();
     }
 
@@ -26,13 +26,16 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.dentrassi.hono.demo.common.Counter;
+import de.dentrassi.hono.demo.common.Delta;
 import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+import de.dentrassi.hono.demo.common.MetricsRegistry;
+import de.dentrassi.hono.demo.common.MetricsServer;
 import de.dentrassi.hono.demo.common.Register;
 import okhttp3.ConnectionPool;
 import okhttp3.Cookie;
@@ -48,6 +51,14 @@ public class Application {
 
     private static InfluxDbMetrics metrics;
 
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getDefault();
+
+    private static final Delta SENT = new Delta(Device.SENT);
+    private static final Delta SUCCESS = new Delta(Device.SUCCESS);
+    private static final Delta FAILURE = new Delta(Device.FAILURE);
+    private static final Delta DURATIONS = new Delta(Device.DURATIONS);
+    private static final Map<Integer, Delta> ERRORS = new HashMap<>();
+
     private static final boolean METRICS_ENABLED = Optional
             .ofNullable(System.getenv("ENABLE_METRICS"))
             .map(Boolean::parseBoolean)
@@ -74,6 +85,9 @@ public class Application {
             metrics = null;
         }
 
+        REGISTRY.gauge("http_publish_backlog", "Messages waiting to be sent", Device.BACKLOG::get);
+        MetricsServer.start();
+
         final int numberOfDevices = envOrElse("NUM_DEVICES", Integer::parseInt, 10);
         final int numberOfThreads = envOrElse("NUM_THREADS", Integer::parseInt, 10);
 
@@ -155,17 +169,17 @@ public class Application {
 
     private static void dumpStats() {
         try {
-            final long sent = Device.SENT.getAndSet(0);
-            final long success = Device.SUCCESS.getAndSet(0);
-            final long failure = Device.FAILURE.getAndSet(0);
-            final long durations = Device.DURATIONS.getAndSet(0);
+            final long sent = SENT.next();
+            final long success = SUCCESS.next();
+            final long failure = FAILURE.next();
+            final long durations = DURATIONS.next();
             final long backlog = Device.BACKLOG.get();
 
             final Map<Integer, Long> counts = new TreeMap<>();
 
-            for (final Map.Entry<Integer, AtomicLong> entry : Device.ERRORS.entrySet()) {
+            for (final Map.Entry<Integer, Counter> entry : Device.ERRORS.entrySet()) {
                 final int code = entry.getKey();
-                final long value = entry.getValue().getAndSet(0);
+                final long value = ERRORS.computeIfAbsent(code, x -> new Delta(entry.getValue())).next();
                 counts.put(code, value);
             }
 
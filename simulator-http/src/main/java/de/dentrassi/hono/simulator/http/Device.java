@@ -12,7 +12,10 @@ import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.dentrassi.hono.demo.common.Counter;
+import de.dentrassi.hono.demo.common.MetricsRegistry;
 import de.dentrassi.hono.demo.common.Register;
+import de.dentrassi.hono.demo.common.TelemetryPayload;
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.Credentials;
@@ -34,12 +37,15 @@ public class Device {
     private static final String HONO_HTTP_PORT = System.getenv("HONO_HTTP_PORT");
     private static final HttpUrl HONO_HTTP_URL;
 
-    public static final AtomicLong SENT = new AtomicLong();
-    public static final AtomicLong SUCCESS = new AtomicLong();
-    public static final AtomicLong FAILURE = new AtomicLong();
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getDefault();
+
+    public static final Counter SENT = REGISTRY.counter("http_publish_sent_total", "Messages sent");
+    public static final Counter SUCCESS = REGISTRY.counter("http_publish_success_total", "Messages accepted");
+    public static final Counter FAILURE = REGISTRY.counter("http_publish_failure_total", "Messages failed");
+    public static final Counter DURATIONS = REGISTRY.counter("http_publish_duration_ms_total",
+            "Time spent sending messages, in milliseconds");
     public static final AtomicLong BACKLOG = new AtomicLong();
-    public static final AtomicLong DURATIONS = new AtomicLong();
-    public static final Map<Integer, AtomicLong> ERRORS = new ConcurrentHashMap<>();
+    public static final Map<Integer, Counter> ERRORS = new ConcurrentHashMap<>();
 
     private static final boolean ASYNC = Boolean.parseBoolean(System.getenv().getOrDefault("HTTP_ASYNC", "false"));
     private static final String METHOD = System.getenv().get("HTTP_METHOD");
@@ -84,6 +90,8 @@ public class Device {
 
     private final String tenant;
 
+    private long sequence;
+
     public Device(final String user, final String deviceId, final String tenant, final String password,
             final OkHttpClient client, final Register register) {
         this.client = client;
@@ -93,19 +101,23 @@ public class Device {
         this.tenant = tenant;
         this.password = password;
         this.auth = Credentials.basic(user + "@" + tenant, password);
-        this.body = RequestBody.create(JSON, "{foo: 42}");
+        this.body = RequestBody.create(JSON, TelemetryPayload.DEFAULT);
 
+        this.request = createRequest(this.body);
+    }
+
+    private Request createRequest(final RequestBody body) {
         if ("POST".equals(METHOD)) {
-            this.request = createPostRequest();
+            return createPostRequest(body);
         } else {
-            this.request = createPutRequest();
+            return createPutRequest(body);
         }
     }
 
-    private Request createPostRequest() {
+    private Request createPostRequest(final RequestBody body) {
         final Request.Builder builder = new Request.Builder()
                 .url(HONO_HTTP_URL)
-                .post(this.body);
+                .post(body);
 
         if (!NOAUTH) {
             builder.header("Authorization", this.auth);
@@ -114,14 +126,14 @@ public class Device {
         return builder.build();
     }
 
-    private Request createPutRequest() {
+    private Request createPutRequest(final RequestBody body) {
         final Request.Builder builder = new Request.Builder()
                 .url(
                         HONO_HTTP_URL.newBuilder()
                                 .addPathSegment(this.tenant)
                                 .addPathSegment(this.deviceId)
                                 .build())
-                .put(this.body);
+                .put(body);
 
         if (!NOAUTH) {
             builder.header("Authorization", this.auth);
@@ -151,7 +163,7 @@ public class Device {
     }
 
     private void processTick() {
-        SENT.incrementAndGet();
+        SENT.increment();
 
         final Instant start = Instant.now();
 
@@ -163,22 +175,22 @@ public class Device {
             }
 
         } catch (final Exception e) {
-            FAILURE.incrementAndGet();
+            FAILURE.increment();
             logger.debug("Failed to publish", e);
         } finally {
             final Duration dur = Duration.between(start, Instant.now());
-            DURATIONS.addAndGet(dur.toMillis());
+            DURATIONS.add(dur.toMillis());
         }
     }
 
     private void publishSync() throws IOException {
         try (final Response response = createCall().execute()) {
             if (response.isSuccessful()) {
-                SUCCESS.incrementAndGet();
+                SUCCESS.increment();
                 handleSuccess(response);
             } else {
                 logger.trace("Result code: {}", response.code());
-                FAILURE.incrementAndGet();
+                FAILURE.increment();
                 handleFailure(response);
             }
         }
@@ -192,11 +204,11 @@ public class Device {
             public void onResponse(final Call call, final Response response) throws IOException {
                 BACKLOG.decrementAndGet();
                 if (response.isSuccessful()) {
-                    SUCCESS.incrementAndGet();
+                    SUCCESS.increment();
                     handleSuccess(response);
                 } else {
                     logger.trace("Result code: {}", response.code());
-                    FAILURE.incrementAndGet();
+                    FAILURE.increment();
                     handleFailure(response);
                 }
                 response.close();
@@ -205,13 +217,17 @@ public class Device {
             @Override
             public void onFailure(final Call call, final IOException e) {
                 BACKLOG.decrementAndGet();
-                FAILURE.incrementAndGet();
+                FAILURE.increment();
                 logger.debug("Failed to tick", e);
             }
         });
     }
 
     private Call createCall() {
+        if (TelemetryPayload.STAMP) {
+            final String payload = TelemetryPayload.stamped(System.currentTimeMillis(), this.sequence++);
+            return this.client.newCall(createRequest(RequestBody.create(JSON, payload)));
+        }
         return this.client.newCall(this.request);
     }
 
@@ -221,8 +237,8 @@ public class Device {
     protected void handleFailure(final Response response) {
         final int code = response.code();
 
-        final AtomicLong counter = ERRORS.computeIfAbsent(code, x -> new AtomicLong());
-        counter.incrementAndGet();
+        ERRORS.computeIfAbsent(code, x -> REGISTRY.counter("http_publish_errors_total",
+                "Failed requests, by status code", "code", Integer.toString(x))).increment();
 
         try {
             switch (code) {
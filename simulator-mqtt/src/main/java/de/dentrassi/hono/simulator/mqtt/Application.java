@@ -25,7 +25,10 @@ import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.dentrassi.hono.demo.common.Delta;
 import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+import de.dentrassi.hono.demo.common.MetricsRegistry;
+import de.dentrassi.hono.demo.common.MetricsServer;
 import de.dentrassi.hono.demo.common.Register;
 import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
@@ -37,6 +40,10 @@ public class Application {
 
     private static InfluxDbMetrics metrics;
 
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getDefault();
+
+    private static final Delta SENT = new Delta(Device.SENT);
+
     private static final boolean METRICS_ENABLED = Optional
             .ofNullable(System.getenv("ENABLE_METRICS"))
             .map(Boolean::parseBoolean)
@@ -73,6 +80,9 @@ public class Application {
             metrics = null;
         }
 
+        REGISTRY.gauge("mqtt_connected", "Connected devices", Device.CONNECTED::get);
+        MetricsServer.start();
+
         final int numberOfDevices = envOrElse("NUM_DEVICES", Integer::parseInt, 10);
         final int numberOfThreads = envOrElse("NUM_THREADS", Integer::parseInt, 10);
         final int eventLoopPoolSize = envOrElse("VERTX_EVENT_POOL_SIZE", Integer::parseInt, 10);
@@ -118,7 +128,7 @@ public class Application {
 
     private static void dumpStats() {
         try {
-            final long sent = Device.SENT.getAndSet(0);
+            final long sent = SENT.next();
             final long connected = Device.CONNECTED.get();
 
             final Instant now = Instant.now();
@@ -5,8 +5,11 @@ import static de.dentrassi.hono.demo.common.Register.shouldRegister;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 
-import de.dentrassi.flow.component.mqtt.internal.io.vertx.mqtt.MqttClient;
+import de.dentrassi.hono.demo.common.Counter;
+import de.dentrassi.hono.demo.common.MetricsRegistry;
 import de.dentrassi.hono.demo.common.Register;
+import de.dentrassi.hono.demo.common.TelemetryPayload;
+import de.dentrassi.hono.demo.mqtt.MqttClient;
 import io.netty.handler.codec.mqtt.MqttConnectReturnCode;
 import io.netty.handler.codec.mqtt.MqttQoS;
 import io.vertx.core.Vertx;
@@ -34,6 +37,8 @@ public class Device {
 
     private boolean connected;
 
+    private long sequence;
+
     private static final String HONO_MQTT_HOST = System.getenv().getOrDefault("HONO_MQTT_HOST", "localhost");
     private static final int HONO_MQTT_PORT = Application.envOrElse("HONO_MQTT_PORT", Integer::parseInt, 1883);
     private static final boolean HONO_MQTT_SSL = Application.envOrElse("HONO_MQTT_SSL", Boolean::parseBoolean, false);
@@ -50,7 +55,8 @@ public class Device {
     private final Random random = new Random();
 
     public static final AtomicLong TICKED = new AtomicLong();
-    public static final AtomicLong SENT = new AtomicLong();
+    public static final Counter SENT = MetricsRegistry.getDefault().counter("mqtt_publish_sent_total",
+            "Messages sent");
     public static final AtomicLong CONNECTED = new AtomicLong();
 
     public Device(final Vertx vertx, final String username, final String deviceId, final String tenant,
@@ -64,7 +70,7 @@ public class Device {
         this.username = username;
         this.password = password;
 
-        this.payload = Buffer.factory.buffer("{foo: 42}");
+        this.payload = Buffer.factory.buffer(TelemetryPayload.DEFAULT);
 
         final MqttClientOptions options = new MqttClientOptions();
 
@@ -124,9 +130,17 @@ public class Device {
             return;
         }
 
-        SENT.incrementAndGet();
+        SENT.increment();
+
+        final Buffer payload;
+        if (TelemetryPayload.STAMP) {
+            payload = Buffer.factory
+                    .buffer(TelemetryPayload.stamped(System.currentTimeMillis(), this.sequence++));
+        } else {
+            payload = this.payload;
+        }
 
-        this.client.publish(this.topic, this.payload, MqttQoS.AT_MOST_ONCE, false, false);
+        this.client.publish(this.topic, payload, MqttQoS.AT_MOST_ONCE, false, false);
     }
 
     private void connectionEstablished() {
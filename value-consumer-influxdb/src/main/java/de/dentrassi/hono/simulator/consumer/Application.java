@@ -14,50 +14,88 @@ import static java.lang.Integer.parseInt;
 import static java.lang.System.getenv;
 import static java.util.Optional.ofNullable;
 
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.apache.qpid.proton.amqp.messaging.AmqpValue;
-import org.apache.qpid.proton.amqp.messaging.Data;
-import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.amqp.Symbol;
 import org.apache.qpid.proton.message.Message;
-import org.eclipse.hono.client.HonoClient;
-import org.eclipse.hono.client.MessageConsumer;
-import org.eclipse.hono.client.impl.HonoClientImpl;
 import org.eclipse.hono.config.ClientConfigProperties;
 import org.eclipse.hono.connection.ConnectionFactoryImpl;
 import org.eclipse.hono.connection.ConnectionFactoryImpl.ConnectionFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.dentrassi.hono.demo.common.Config;
+import de.dentrassi.hono.demo.common.Counter;
 import de.dentrassi.hono.demo.common.InfluxDbMetrics;
-import io.vertx.core.Future;
+import de.dentrassi.hono.demo.common.MetricsRegistry;
+import de.dentrassi.hono.demo.common.MetricsServer;
 import io.vertx.core.Vertx;
-import io.vertx.proton.ProtonClientOptions;
-import io.vertx.proton.ProtonConnection;
+import io.vertx.core.VertxOptions;
+import io.vertx.proton.ProtonDelivery;
 
 public class Application {
 
     private static final Logger logger = LoggerFactory.getLogger(Application.class);
 
     private final Vertx vertx;
-    private final HonoClientImpl honoClient;
+    private final List<Receiver> receivers;
     private final CountDownLatch latch;
-    private final String tenant;
+    private final TenantSource tenantSource;
+    private final TenantScheduler scheduler;
+    private volatile Set<String> tenants;
 
-    private final InfluxDbConsumer consumer;
+    private final CardinalityGuard guard;
+    private final Sink sink;
     private final InfluxDbMetrics metrics;
 
-    private long last;
-    private final AtomicLong counter = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+    private final AtomicLong sinkNanos = new AtomicLong();
+
+    private final MetricsServer metricsServer;
+
+    private final Counter messagesTotal = MetricsRegistry.getDefault()
+            .counter("consumer_messages_total", "Messages received");
+    private final Counter decodeTotal = MetricsRegistry.getDefault()
+            .counter("consumer_decode_ns_total", "Time spent decoding messages, in nanoseconds");
+    private final Counter sinkTotal = MetricsRegistry.getDefault()
+            .counter("consumer_sink_ns_total", "Time spent handing records to the sink, in nanoseconds");
+
+    private final int sinkBatchSize = Integer.parseInt(getenv().getOrDefault("SINK_BATCH_SIZE", "100"));
+    private final long sinkFlushInterval = Config
+            .parseDuration(getenv().getOrDefault("SINK_FLUSH_INTERVAL", "1000"));
+
+    private List<Record> pending;
+
+    private final Dispositions dispositions;
+    private final ReadWriteLock settleLock = new ReentrantReadWriteLock();
+
+    /**
+     * Set when the sink failed to accept a batch, which may contain records
+     * of any delivery collected since the last flush.
+     */
+    private final AtomicBoolean acceptFailed = new AtomicBoolean();
 
     private final ScheduledExecutorService stats;
+    private final ScheduledExecutorService flusher;
 
     private static final boolean PERSISTENCE_ENABLED = Optional
             .ofNullable(System.getenv("ENABLE_PERSISTENCE"))
@@ -69,12 +107,45 @@ public class Application {
             .map(Boolean::parseBoolean)
             .orElse(true);
 
-    private static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 5_000;
+    /**
+     * Decode payloads for measuring the latency and message loss, even when
+     * persistence is disabled.
+     */
+    private static final boolean LATENCY_ENABLED = Optional
+            .ofNullable(System.getenv("ENABLE_LATENCY"))
+            .map(Boolean::parseBoolean)
+            .orElse(false);
+
+    private static final int CONNECTIONS = Integer.parseInt(getenv().getOrDefault("HONO_CONNECTIONS", "1"));
+
+    /**
+     * Consume events instead of telemetry.
+     */
+    private static final boolean EVENTS = "event".equals(getenv().getOrDefault("CONSUMER_MODE", "telemetry"));
+
+    private static final long TENANTS_REFRESH = Config
+            .parseDuration(getenv().getOrDefault("HONO_TENANTS_REFRESH", "30s"));
+
+    private static final Symbol TENANT_ID = Symbol.valueOf("tenant_id");
+    private static final Symbol DEVICE_ID = Symbol.valueOf("device_id");
+
+    private static final int SCHEMA_CACHE_SIZE = Integer
+            .parseInt(getenv().getOrDefault("SCHEMA_CACHE_SIZE", "100000"));
+
+    private final SchemaCache schemas = SCHEMA_CACHE_SIZE > 0 ? new SchemaCache(SCHEMA_CACHE_SIZE) : null;
+
+    private final Payloads payloads = new Payloads(this.schemas);
+
+    private final LatencyRecorder latency = new LatencyRecorder();
+
+    private final SequenceTracker sequences = new SequenceTracker(
+            Config.parseDuration(getenv().getOrDefault("SEQUENCE_IDLE_TIMEOUT", "10m")));
 
     public static void main(final String[] args) throws Exception {
 
         final Application app = new Application(
-                getenv("HONO_TENANT"),
+                new TenantSource(getenv("HONO_TENANT"),
+                        ofNullable(getenv("HONO_TENANTS_FILE")).map(Paths::get).orElse(null)),
                 getenv("MESSAGING_SERVICE_HOST"), // HONO_DISPATCH_ROUTER_EXT_SERVICE_HOST 
                 Integer.parseInt(getenv("MESSAGING_SERVICE_PORT_AMQP")), // HONO_DISPATCH_ROUTER_EXT_SERVICE_PORT
                 getenv("HONO_USER"),
@@ -98,20 +169,16 @@ public class Application {
         System.exit(-1);
     }
 
-    public Application(final String tenant, final String host, final int port, final String user, final String password,
+    public Application(final TenantSource tenantSource, final String host, final int port, final String user, final String password,
             final Optional<String> trustedCerts) {
 
-        System.out.format("Hono Consumer - Server: %s:%s%n", host, port);
+        System.out.format("Hono Consumer - Server: %s:%s, connections: %s, mode: %s%n", host, port, CONNECTIONS,
+                EVENTS ? "event" : "telemetry");
 
-        if (PERSISTENCE_ENABLED) {
-            logger.info("Recording payload");
-            this.consumer = new InfluxDbConsumer(makeInfluxDbUrl(),
-                    getenv("INFLUXDB_USER"),
-                    getenv("INFLUXDB_PASSWORD"),
-                    getenv("INFLUXDB_NAME"));
-        } else {
-            this.consumer = null;
-        }
+        this.guard = createGuard();
+        this.sink = createSink(this.guard);
+        this.pending = new ArrayList<>(this.sinkBatchSize);
+        this.dispositions = EVENTS ? new Dispositions() : null;
 
         if (METRICS_ENABLED) {
             logger.info("Recording metrics");
@@ -126,9 +193,48 @@ public class Application {
         this.stats = Executors.newSingleThreadScheduledExecutor();
         this.stats.scheduleAtFixedRate(this::updateStats, 1, 1, TimeUnit.SECONDS);
 
-        this.tenant = tenant;
+        // flushing may have to wait for the sink, don't let it delay the stats
+
+        if (this.sink != null || EVENTS) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor();
+            this.flusher.scheduleWithFixedDelay(this::flushSink, this.sinkFlushInterval, this.sinkFlushInterval,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.flusher = null;
+        }
+
+        this.tenantSource = tenantSource;
+        this.tenants = tenantSource.load();
+
+        if (this.tenants.isEmpty() && !tenantSource.isDynamic()) {
+            throw new IllegalArgumentException("No tenant configured, set HONO_TENANT or HONO_TENANTS_FILE");
+        }
+
+        // with multiple tenants, isolate them by default
+
+        final boolean multiTenant = tenantSource.isDynamic() || this.tenants.size() > 1;
+
+        final int decodeThreads = Integer.parseInt(getenv().getOrDefault("DECODE_THREADS",
+                Integer.toString(multiTenant ? Runtime.getRuntime().availableProcessors() : 0)));
+        final int tenantCredits = Integer.parseInt(getenv().getOrDefault("TENANT_CREDITS",
+                multiTenant ? "500" : "0"));
+
+        System.out.format("Hono Consumer - Tenants: %s, decode threads: %s, tenant credits: %s%n",
+                this.tenants, decodeThreads, tenantCredits);
+
+        this.scheduler = new TenantScheduler(decodeThreads);
+
+        if (tenantSource.isDynamic()) {
+            this.stats.scheduleWithFixedDelay(this::refreshTenants, TENANTS_REFRESH, TENANTS_REFRESH,
+                    TimeUnit.MILLISECONDS);
+        }
 
-        this.vertx = Vertx.vertx();
+        // make sure every connection gets an event loop of its own
+
+        final VertxOptions options = new VertxOptions();
+        options.setEventLoopPoolSize(Math.max(CONNECTIONS, 2 * Runtime.getRuntime().availableProcessors()));
+
+        this.vertx = Vertx.vertx(options);
 
         final ConnectionFactoryBuilder builder = ConnectionFactoryImpl.ConnectionFactoryBuilder.newBuilder()
                 .vertx(this.vertx)
@@ -144,35 +250,191 @@ public class Application {
 
         final ClientConfigProperties config = new ClientConfigProperties();
 
-        if (System.getenv("HONO_INITIAL_CREDITS") != null) {
+        if (tenantCredits > 0) {
+            // disable prefetching, credits are managed by the tenant links
+            config.setInitialCredits(0);
+        } else if (System.getenv("HONO_INITIAL_CREDITS") != null) {
             config.setInitialCredits(parseInt(System.getenv("HONO_INITIAL_CREDITS")));
         }
 
-        this.honoClient = new HonoClientImpl(this.vertx, builder.build(), config);
+        this.receivers = new ArrayList<>(CONNECTIONS);
+        for (int i = 0; i < CONNECTIONS; i++) {
+            this.receivers.add(new Receiver(i, this.vertx, builder.build(), config, tenantCredits, EVENTS,
+                    this::submitMessage));
+        }
+
+        MetricsRegistry.getDefault().gauge("consumer_links", "Open receiver links", () -> {
+            int links = 0;
+            for (final Receiver receiver : this.receivers) {
+                links += receiver.getOpenLinks();
+            }
+            return links;
+        });
+        this.metricsServer = MetricsServer.start();
 
         this.latch = new CountDownLatch(1);
     }
 
+    private static CardinalityGuard createGuard() {
+        final long limit = Long.parseLong(getenv().getOrDefault("TAG_CARDINALITY_LIMIT", "200000"));
+        if (limit <= 0) {
+            return null;
+        }
+
+        final Set<String> allowedKeys = Config.parseSet(getenv().getOrDefault("TAG_KEYS", ""));
+        final Set<String> exemptKeys = Config
+                .parseSet(getenv().getOrDefault("TAG_EXEMPT_KEYS", "device_id,tenant_id"));
+
+        return new CardinalityGuard(allowedKeys, exemptKeys, limit,
+                Integer.parseInt(getenv().getOrDefault("TAG_MAX_KEYS", "32")),
+                !"drop".equals(getenv().getOrDefault("TAG_OVERFLOW", "field")),
+                Config.parseDuration(getenv().getOrDefault("TAG_BLOCK_DURATION", "0")));
+    }
+
+    private static Sink createSink(final CardinalityGuard guard) {
+
+        final String type = getenv().getOrDefault("SINK", PERSISTENCE_ENABLED ? "influxdb" : "none");
+        final int tagCacheSize = Integer.parseInt(getenv().getOrDefault("TAG_CACHE_SIZE", "100000"));
+
+        logger.info("Sink: {}", type);
+
+        switch (type) {
+        case "influxdb":
+            return createInfluxDbSink(tagCacheSize, guard);
+        case "file":
+            try {
+                return new FileSink(Paths.get(getenv().getOrDefault("SINK_FILE", "telemetry.lp")), tagCacheSize,
+                        guard);
+            } catch (final IOException e) {
+                throw new RuntimeException("Failed to open sink file", e);
+            }
+        case "archive":
+            if (EVENTS) {
+                // open blocks are only kept in memory, flushing doesn't persist them
+                throw new IllegalArgumentException("The archive sink cannot be used with CONSUMER_MODE=event");
+            }
+            try {
+                return new ArchiveSink(Paths.get(getenv().getOrDefault("SINK_DIRECTORY", "archive")),
+                        Long.parseLong(getenv().getOrDefault("SINK_SEGMENT_SIZE", Long.toString(256L * 1024 * 1024))),
+                        Config.parseDuration(getenv().getOrDefault("SINK_SEGMENT_DURATION", "1h")),
+                        Integer.parseInt(getenv().getOrDefault("SINK_BLOCK_SIZE", "1000")));
+            } catch (final IOException e) {
+                throw new RuntimeException("Failed to open archive", e);
+            }
+        case "null":
+            return new NullSink();
+        case "none":
+            return null;
+        default:
+            throw new IllegalArgumentException(String.format("Unknown sink type: %s", type));
+        }
+    }
+
+    private static Sink createInfluxDbSink(final int tagCacheSize, final CardinalityGuard guard) {
+
+        if (EVENTS && Config.parseDuration(getenv("AGGREGATION_WINDOW")) > 0) {
+            // aggregates are only kept in memory until the window ends, flushing doesn't persist them
+            throw new IllegalArgumentException("AGGREGATION_WINDOW cannot be used with CONSUMER_MODE=event");
+        }
+
+        List<String> urls = Config.parseList(getenv("INFLUXDB_PAYLOAD_URLS"));
+        List<String> names = Config.parseList(getenv("INFLUXDB_PAYLOAD_NAMES"));
+
+        if (urls.isEmpty()) {
+            urls = Collections.singletonList(makeInfluxDbUrl());
+        }
+        if (names.isEmpty()) {
+            names = Collections.singletonList(getenv("INFLUXDB_NAME"));
+        }
+
+        // a single URL or name applies to all shards
+
+        if (urls.size() == 1 && names.size() > 1) {
+            urls = Collections.nCopies(names.size(), urls.get(0));
+        } else if (names.size() == 1 && urls.size() > 1) {
+            names = Collections.nCopies(urls.size(), names.get(0));
+        } else if (urls.size() != names.size()) {
+            throw new IllegalArgumentException(String.format(
+                    "Number of InfluxDB URLs (%s) and database names (%s) do not match", urls.size(), names.size()));
+        }
+
+        return new InfluxDbSink(urls,
+                getenv("INFLUXDB_USER"),
+                getenv("INFLUXDB_PASSWORD"),
+                names,
+                tagCacheSize, guard);
+    }
+
     private void close() {
         this.stats.shutdown();
-        this.honoClient.shutdown(done -> {
-        });
+        if (this.flusher != null) {
+            this.flusher.shutdown();
+            try {
+                this.flusher.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.scheduler.close();
+        if (this.sink != null) {
+            flushSink();
+            this.sink.close();
+        }
+        for (final Receiver receiver : this.receivers) {
+            receiver.shutdown();
+        }
+        if (this.metrics != null) {
+            this.metrics.close();
+        }
+        if (this.metricsServer != null) {
+            this.metricsServer.close();
+        }
         this.vertx.close();
     }
 
     public void updateStats() {
-        final long c = this.counter.get();
+        long diff = 0;
+        int links = 0;
+        for (final Receiver receiver : this.receivers) {
+            diff += receiver.takeCount();
+            links += receiver.getOpenLinks();
+        }
 
-        final long diff = c - this.last;
-        this.last = c;
+        final long decode = this.decodeNanos.getAndSet(0);
+        final long sink = this.sinkNanos.getAndSet(0);
+
+        this.messagesTotal.add(diff);
+        this.decodeTotal.add(decode);
+        this.sinkTotal.add(sink);
 
         final Instant now = Instant.now();
 
-        System.out.format("%s: Processed %s messages%n", now, diff);
+        System.out.format("%s: Processed %s messages, links: %s/%s, decode: %s ms, sink: %s ms%n", now, diff,
+                links, this.receivers.size() * this.tenants.size(), decode / 1_000_000, sink / 1_000_000);
 
         try {
             if (this.metrics != null) {
-                this.metrics.updateStats(now, "consumer", "messageCount", diff);
+                final Map<String, Number> values = new HashMap<>(4);
+                values.put("messageCount", diff);
+                values.put("connections", links);
+                values.put("decodeTime", decode);
+                values.put("sinkTime", sink);
+                this.metrics.updateStats(now, "consumer", values);
+            }
+            this.latency.report(now, this.metrics);
+            this.sequences.report(now, this.metrics);
+            this.scheduler.report(now, this.metrics);
+            if (this.sink != null) {
+                this.sink.report(now, this.metrics);
+            }
+            if (this.schemas != null) {
+                this.schemas.report(now, this.metrics);
+            }
+            if (this.guard != null) {
+                this.guard.report(now, this.metrics);
+            }
+            if (this.dispositions != null) {
+                this.dispositions.report(now, this.metrics);
             }
         } catch (final Exception e) {
             e.printStackTrace();
@@ -188,89 +450,189 @@ public class Application {
         return String.format("http://%s:%s", getenv("INFLUXDB_SERVICE_HOST"), getenv("INFLUXDB_SERVICE_PORT_API"));
     }
 
-    private ProtonClientOptions getOptions() {
-        return new ProtonClientOptions();
-    }
-
     private void consumeTelemetryData() throws Exception {
 
-        final Future<MessageConsumer> startupTracker = Future.future();
-        startupTracker.setHandler(startup -> {
-            if (startup.failed()) {
-                logger.error("Error occurred during initialization of receiver", startup.cause());
-                this.latch.countDown();
-            }
-        });
-
-        this.honoClient
-                .connect(getOptions(), this::onDisconnect)
-                .compose(connectedClient -> createConsumer(connectedClient))
-                .setHandler(startupTracker);
+        for (final Receiver receiver : this.receivers) {
+            receiver.start(this.tenants, startup -> {
+                if (startup.failed()) {
+                    logger.error("Error occurred during initialization of receiver", startup.cause());
+                    this.latch.countDown();
+                }
+            });
+        }
 
         // if everything went according to plan, the next step will block forever
 
         this.latch.await();
     }
 
-    private Future<MessageConsumer> createConsumer(final HonoClient connectedClient) {
-
-        // default is telemetry consumer
-        return connectedClient.createTelemetryConsumer(this.tenant,
-                this::handleTelemetryMessage, closeHandler -> {
-                    logger.info("close handler of event consumer is called");
-                    this.vertx.setTimer(DEFAULT_CONNECT_TIMEOUT_MILLIS, reconnect -> {
-                        logger.info("attempting to re-open the EventConsumer link ...");
-                        createConsumer(connectedClient);
-                    });
-                });
+    private void refreshTenants() {
+        final Set<String> tenants = this.tenantSource.load();
+        if (tenants.equals(this.tenants)) {
+            return;
+        }
+
+        logger.info("Tenants changed: {}", tenants);
+
+        this.tenants = tenants;
+        for (final Receiver receiver : this.receivers) {
+            receiver.setTenants(tenants);
+        }
     }
 
-    private void onDisconnect(final ProtonConnection con) {
-        this.vertx.setTimer(DEFAULT_CONNECT_TIMEOUT_MILLIS, reconnect -> {
-            logger.info("attempting to re-connect to Hono ...");
-            this.honoClient.connect(getOptions(), this::onDisconnect)
-                    .compose(connectedClient -> createConsumer(connectedClient));
+    private void submitMessage(final TenantLink link, final ProtonDelivery delivery, final Message msg) {
+        this.scheduler.submit(link.getTenant(), () -> {
+
+            if (delivery == null) {
+                try {
+                    handleMessage(link.getTenant(), msg);
+                } finally {
+                    link.processed();
+                }
+                return;
+            }
+
+            // events get settled once the sink got flushed, see flushSink()
+
+            final Lock lock = this.settleLock.readLock();
+            lock.lock();
+            try {
+                handleMessage(link.getTenant(), msg);
+                this.dispositions.add(link, delivery);
+            } catch (final RuntimeException e) {
+                // the event didn't get stored
+                this.dispositions.release(link, delivery);
+                throw e;
+            } finally {
+                lock.unlock();
+            }
         });
     }
 
-    private void handleTelemetryMessage(final Message msg) {
-        this.counter.incrementAndGet();
+    private void handleMessage(final String tenant, final Message msg) {
+        if (this.sink == null && !LATENCY_ENABLED) {
+            return;
+        }
+
+        final long received = System.currentTimeMillis();
+        final long start = System.nanoTime();
+
+        final String tenantId = annotation(msg, TENANT_ID, tenant);
+        final String deviceId = annotation(msg, DEVICE_ID, "");
+
+        final String key = Record.key(tenantId, deviceId);
+
+        final Fields fields = new Fields();
+        final boolean decoded = this.payloads.decode(msg, key, fields);
+
+        this.decodeNanos.addAndGet(System.nanoTime() - start);
 
-        if (this.consumer != null) {
-            final String body = bodyAsString(msg);
-            if (body != null) {
-                this.consumer.consume(msg, body);
+        if (!decoded) {
+            return;
+        }
+
+        if (fields.getTimestamp() >= 0) {
+            this.latency.record(tenantId, received, fields.getTimestamp());
+        }
+
+        if (fields.getSequence() >= 0 && !deviceId.isEmpty()) {
+            this.sequences.track(tenantId, deviceId, fields.getSequence());
+        }
+
+        if (this.sink != null) {
+            final Map<Symbol, Object> annotations = msg.getMessageAnnotations() != null
+                    ? msg.getMessageAnnotations().getValue()
+                    : Collections.emptyMap();
+            enqueue(new Record(tenantId, deviceId, key, annotations, received, fields));
+        }
+    }
+
+    private void enqueue(final Record record) {
+        final List<Record> full;
+
+        synchronized (this) {
+            this.pending.add(record);
+            if (this.pending.size() < this.sinkBatchSize) {
+                return;
             }
+            full = this.pending;
+            this.pending = new ArrayList<>(this.sinkBatchSize);
+        }
+
+        try {
+            accept(full);
+        } catch (final RuntimeException e) {
+            // the batch was lost, along with records of other deliveries
+            this.acceptFailed.set(true);
+            throw e;
         }
     }
 
-    private String bodyAsString(final Message msg) {
+    private void flushSink() {
+        final List<Record> partial;
+        final Map<TenantLink, List<ProtonDelivery>> deliveries;
+        final boolean failed;
 
-        final Section body = msg.getBody();
+        // no message is being processed while holding the write lock, so the
+        // records of all drained deliveries are either handed over already,
+        // or part of the partial batch
 
-        if (body instanceof AmqpValue) {
+        final Lock lock = this.settleLock.writeLock();
+        lock.lock();
+        try {
+            synchronized (this) {
+                partial = this.pending;
+                this.pending = new ArrayList<>(this.sinkBatchSize);
+            }
+            deliveries = this.dispositions != null ? this.dispositions.drain() : Collections.emptyMap();
+            failed = this.acceptFailed.getAndSet(false);
+        } finally {
+            lock.unlock();
+        }
 
-            final Object value = ((AmqpValue) body).getValue();
+        CompletableFuture<Void> flushed;
+        try {
+            if (this.sink != null) {
+                if (!partial.isEmpty()) {
+                    accept(partial);
+                }
+                flushed = this.sink.flush();
+            } else {
+                flushed = CompletableFuture.completedFuture(null);
+            }
+        } catch (final Exception e) {
+            flushed = new CompletableFuture<>();
+            flushed.completeExceptionally(e);
+        }
 
-            if (value == null) {
-                logger.info("Missing body value");
-                return null;
+        flushed.whenComplete((v, e) -> {
+            if (e != null) {
+                logger.warn("Failed to flush sink", e);
+            }
+            if (!deliveries.isEmpty()) {
+                // release the deliveries on failure, so that they get delivered again
+                this.dispositions.settle(deliveries, e == null && !failed);
             }
+        });
+    }
 
+    private void accept(final List<Record> records) {
+        final long start = System.nanoTime();
+        try {
+            this.sink.accept(records);
+        } finally {
+            this.sinkNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private static String annotation(final Message msg, final Symbol name, final String defaultValue) {
+        if (msg.getMessageAnnotations() != null) {
+            final Object value = msg.getMessageAnnotations().getValue().get(name);
             if (value instanceof String) {
                 return (String) value;
-            } else if (value instanceof byte[]) {
-                return new String((byte[]) value, StandardCharsets.UTF_8);
-            } else {
-                logger.info("Unsupported body type: {}", value.getClass());
-                return null;
             }
-        } else if (body instanceof Data) {
-            return StandardCharsets.UTF_8.decode(((Data) body).getValue().asByteBuffer()).toString();
-        } else {
-            logger.info("Unsupported body type: {}", body.getClass());
-            return null;
         }
+        return defaultValue;
     }
 
 }
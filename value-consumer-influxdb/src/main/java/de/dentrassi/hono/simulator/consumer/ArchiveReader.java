@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads segments written by the {@link ArchiveSink}.
+ * <p>
+ * Only the blocks matching the requested device and time range get read, using
+ * the index at the end of the segment.
+ * </p>
+ */
+public class ArchiveReader implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface PointVisitor {
+        public void point(String tenant, String device, long timestamp, String[] names, double[] values);
+    }
+
+    private final FileChannel channel;
+
+    private final byte[] index;
+
+    public ArchiveReader(final Path path) throws IOException {
+        this.channel = FileChannel.open(path, READ);
+
+        final long size = this.channel.size();
+
+        final ByteBuffer trailer = read(size - Long.BYTES - Integer.BYTES, Long.BYTES + Integer.BYTES);
+        final long indexOffset = trailer.getLong();
+
+        if (trailer.getInt() != ArchiveSink.MAGIC) {
+            this.channel.close();
+            throw new IOException(String.format("Incomplete or invalid segment: %s", path));
+        }
+
+        this.index = read(indexOffset, (int) (size - indexOffset - trailer.capacity())).array();
+    }
+
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        final ByteBuffer result = ByteBuffer.allocate(length);
+        while (result.hasRemaining()) {
+            if (this.channel.read(result, position + result.position()) < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+        }
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Scan the segment.
+     *
+     * @param device the device to read, or {@code null} for all devices
+     * @param from the start of the time range, inclusive
+     * @param to the end of the time range, inclusive
+     * @param visitor the visitor receiving the points
+     */
+    public void scan(final String device, final long from, final long to, final PointVisitor visitor)
+            throws IOException {
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(this.index));
+        final int entries = in.readInt();
+
+        for (int i = 0; i < entries; i++) {
+            in.readUTF(); // tenant
+            final String entryDevice = in.readUTF();
+            final long first = in.readLong();
+            final long last = in.readLong();
+            final long offset = in.readLong();
+            final int length = in.readInt();
+            in.readInt(); // count
+
+            if (device != null && !device.equals(entryDevice)) {
+                continue;
+            }
+            if (last < from || first > to) {
+                continue;
+            }
+
+            readBlock(read(offset, length).array(), from, to, visitor);
+        }
+    }
+
+    /**
+     * Decode a single block, as written by {@link GorillaBlock#writeTo}.
+     */
+    static void readBlock(final byte[] data, final long from, final long to, final PointVisitor visitor)
+            throws IOException {
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+        final String tenant = in.readUTF();
+        final String device = in.readUTF();
+        final int count = in.readInt();
+        in.readLong(); // first timestamp
+        in.readLong(); // last timestamp
+
+        final String[] names = new String[in.readShort()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+
+        // the columns are stored one after the other, decode them side by side
+
+        int position = data.length - in.available();
+
+        final int timestampLength = in.readInt();
+        final BitReader timestamps = new BitReader(data, position + Integer.BYTES);
+        in.skipBytes(timestampLength);
+        position += Integer.BYTES + timestampLength;
+
+        final BitReader[] columns = new BitReader[names.length];
+        for (int i = 0; i < names.length; i++) {
+            final int length = in.readInt();
+            columns[i] = new BitReader(data, position + Integer.BYTES);
+            in.skipBytes(length);
+            position += Integer.BYTES + length;
+        }
+
+        final long[] bits = new long[names.length];
+        final int[] leading = new int[names.length];
+        final int[] trailing = new int[names.length];
+        final double[] values = new double[names.length];
+
+        long timestamp = 0;
+        long delta = 0;
+
+        for (int p = 0; p < count; p++) {
+            if (p == 0) {
+                timestamp = timestamps.read(64);
+                for (int i = 0; i < names.length; i++) {
+                    bits[i] = columns[i].read(64);
+                }
+            } else {
+                delta += readDeltaOfDelta(timestamps);
+                timestamp += delta;
+                for (int i = 0; i < names.length; i++) {
+                    final BitReader column = columns[i];
+                    if (!column.read()) {
+                        continue;
+                    }
+                    if (column.read()) {
+                        leading[i] = (int) column.read(5);
+                        trailing[i] = 64 - leading[i] - ((int) column.read(6) + 1);
+                    }
+                    bits[i] ^= column.read(64 - leading[i] - trailing[i]) << trailing[i];
+                }
+            }
+
+            if (timestamp < from || timestamp > to) {
+                continue;
+            }
+
+            for (int i = 0; i < names.length; i++) {
+                values[i] = Double.longBitsToDouble(bits[i]);
+            }
+
+            visitor.point(tenant, device, timestamp, names, values);
+        }
+    }
+
+    private static long readDeltaOfDelta(final BitReader in) {
+        if (!in.read()) {
+            return 0;
+        }
+        if (!in.read()) {
+            return signed(in.read(7), 7);
+        }
+        if (!in.read()) {
+            return signed(in.read(9), 9);
+        }
+        if (!in.read()) {
+            return signed(in.read(12), 12);
+        }
+        return in.read(64);
+    }
+
+    private static long signed(final long value, final int bits) {
+        return value << (64 - bits) >> (64 - bits);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Dump segments in the InfluxDB line protocol.
+     * <p>
+     * Usage: {@code ArchiveReader <segment> [device [from [to]]]}
+     * </p>
+     */
+    public static void main(final String[] args) throws Exception {
+
+        final String device = args.length > 1 ? args[1] : null;
+        final long from = args.length > 2 ? Long.parseLong(args[2]) : Long.MIN_VALUE;
+        final long to = args.length > 3 ? Long.parseLong(args[3]) : Long.MAX_VALUE;
+
+        final StringBuilder sb = new StringBuilder();
+        final Map<String, String> tags = new HashMap<>();
+
+        try (ArchiveReader reader = new ArchiveReader(Paths.get(args[0]))) {
+            reader.scan(device, from, to, (tenant, deviceId, timestamp, names, values) -> {
+                tags.put("tenant_id", tenant);
+                tags.put("device_id", deviceId);
+
+                sb.setLength(0);
+                sb.append('P').append(LineProtocol.tagSet(tags)).append(' ');
+
+                boolean first = true;
+                for (int i = 0; i < names.length; i++) {
+                    if (LineProtocol.appendField(sb, first, names[i], values[i])) {
+                        first = false;
+                    }
+                }
+
+                if (!first) {
+                    LineProtocol.appendTimestamp(sb, timestamp);
+                    System.out.println(sb);
+                }
+            });
+        }
+    }
+}
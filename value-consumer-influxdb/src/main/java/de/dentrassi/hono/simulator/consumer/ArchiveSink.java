@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sink archiving records in local segment files, using {@link GorillaBlock}s.
+ * <p>
+ * One block per device is kept open in memory, and gets written when it is
+ * full, when the fields of the device change, or when the segment is rolled. A
+ * new segment is started when the current one exceeds the maximum size or
+ * duration. Each segment ends with an index of its blocks, so that readers can
+ * skip blocks by device and time range.
+ * </p>
+ * <p>
+ * Segment layout: {@code MAGIC, block*, index, index offset (long), MAGIC}.
+ * Each index entry consists of tenant, device, first and last timestamp,
+ * offset and length of the block and the number of points.
+ * </p>
+ */
+public class ArchiveSink implements Sink {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchiveSink.class);
+
+    public static final int MAGIC = 0x48545331; // HTS1
+
+    public static final String SUFFIX = ".gts";
+
+    private static class IndexEntry {
+        private final String tenant;
+        private final String device;
+        private final long firstTimestamp;
+        private final long lastTimestamp;
+        private final long offset;
+        private final int length;
+        private final int count;
+
+        private IndexEntry(final GorillaBlock block, final long offset, final int length) {
+            this.tenant = block.getTenant();
+            this.device = block.getDevice();
+            this.firstTimestamp = block.getFirstTimestamp();
+            this.lastTimestamp = block.getLastTimestamp();
+            this.offset = offset;
+            this.length = length;
+            this.count = block.getCount();
+        }
+    }
+
+    private final Path directory;
+    private final long maxSegmentSize;
+    private final long maxSegmentDuration;
+    private final int blockSize;
+
+    private final Map<String, Map<String, GorillaBlock>> blocks = new HashMap<>();
+
+    private final ByteArrayOutputStream blockBuffer = new ByteArrayOutputStream(16 * 1024);
+    private final DataOutputStream blockOut = new DataOutputStream(this.blockBuffer);
+
+    private DataOutputStream out;
+    private long position;
+    private long started;
+    private List<IndexEntry> index;
+
+    private long points;
+    private long blocksWritten;
+    private long bytesWritten;
+
+    public ArchiveSink(final Path directory, final long maxSegmentSize, final long maxSegmentDuration,
+            final int blockSize) throws IOException {
+
+        logger.info("Archive sink - directory: {}", directory.toAbsolutePath());
+        logger.info("               segment size: {} bytes", maxSegmentSize);
+        logger.info("               segment duration: {} ms", maxSegmentDuration);
+        logger.info("               block size: {} points", blockSize);
+
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.maxSegmentDuration = maxSegmentDuration;
+        this.blockSize = blockSize;
+
+        Files.createDirectories(directory);
+
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+        this.started = System.currentTimeMillis();
+
+        Path path = this.directory.resolve("segment-" + this.started + SUFFIX);
+        for (int i = 1; Files.exists(path); i++) {
+            path = this.directory.resolve("segment-" + this.started + "-" + i + SUFFIX);
+        }
+
+        logger.info("Archive sink - opening segment: {}", path);
+
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024));
+        this.out.writeInt(MAGIC);
+        this.position = Integer.BYTES;
+        this.index = new ArrayList<>();
+    }
+
+    private void closeSegment() throws IOException {
+
+        // write out all open blocks, blocks must not span segments
+
+        for (final Map<String, GorillaBlock> devices : this.blocks.values()) {
+            for (final GorillaBlock block : devices.values()) {
+                writeBlock(block);
+            }
+        }
+        this.blocks.clear();
+
+        final long indexOffset = this.position;
+
+        this.out.writeInt(this.index.size());
+        for (final IndexEntry entry : this.index) {
+            this.out.writeUTF(entry.tenant);
+            this.out.writeUTF(entry.device);
+            this.out.writeLong(entry.firstTimestamp);
+            this.out.writeLong(entry.lastTimestamp);
+            this.out.writeLong(entry.offset);
+            this.out.writeInt(entry.length);
+            this.out.writeInt(entry.count);
+        }
+
+        this.out.writeLong(indexOffset);
+        this.out.writeInt(MAGIC);
+
+        this.out.close();
+        this.out = null;
+    }
+
+    private void writeBlock(final GorillaBlock block) throws IOException {
+        this.blockBuffer.reset();
+        block.writeTo(this.blockOut);
+
+        final int length = this.blockBuffer.size();
+
+        this.index.add(new IndexEntry(block, this.position, length));
+        this.blockBuffer.writeTo(this.out);
+
+        this.position += length;
+        this.blocksWritten++;
+        this.bytesWritten += length;
+    }
+
+    @Override
+    public synchronized void accept(final List<Record> records) {
+        try {
+            for (final Record record : records) {
+                add(record);
+            }
+            if (this.position >= this.maxSegmentSize) {
+                roll();
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void add(final Record record) throws IOException {
+        final Fields fields = record.getFields();
+        if (fields.size() == 0) {
+            return;
+        }
+
+        final Map<String, GorillaBlock> devices = this.blocks.computeIfAbsent(record.getTenant(),
+                k -> new HashMap<>());
+
+        GorillaBlock block = devices.get(record.getDevice());
+
+        if (block != null && !block.matches(fields)) {
+            // the schema changed, start a new block
+            writeBlock(block);
+            block = null;
+        }
+
+        if (block == null) {
+            block = new GorillaBlock(record.getTenant(), record.getDevice(), fields);
+            devices.put(record.getDevice(), block);
+        }
+
+        block.add(record.getReceived(), fields);
+        this.points++;
+
+        if (block.getCount() >= this.blockSize) {
+            writeBlock(block);
+            devices.remove(record.getDevice());
+        }
+    }
+
+    private void roll() throws IOException {
+        closeSegment();
+        openSegment();
+    }
+
+    /**
+     * Flush the current segment.
+     * <p>
+     * <strong>Note:</strong> Open blocks are kept in memory, so the returned
+     * future does not guarantee that all records have been written. This is
+     * why the archive cannot be used when consuming events.
+     * </p>
+     */
+    @Override
+    public synchronized CompletableFuture<Void> flush() {
+        try {
+            if (this.maxSegmentDuration > 0 && System.currentTimeMillis() - this.started >= this.maxSegmentDuration) {
+                roll();
+            } else {
+                this.out.flush();
+            }
+            return CompletableFuture.completedFuture(null);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            closeSegment();
+        } catch (final IOException e) {
+            logger.warn("Failed to close archive segment", e);
+        }
+
+        logger.info("Archive sink - points: {}, blocks: {}, bytes: {}, bytes/point: {}",
+                this.points, this.blocksWritten, this.bytesWritten,
+                this.points > 0 ? String.format("%.2f", (double) this.bytesWritten / this.points) : "-");
+    }
+
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+/**
+ * Adapts the batch size to the observed write latency.
+ * <p>
+ * The batch size is increased additively while writes of full batches stay
+ * below the target latency, and decreased multiplicatively when a write takes
+ * longer than the target or fails (AIMD). Batches cut short by a flush do not
+ * increase the batch size, as the size was not what limited them.
+ * </p>
+ * <p>
+ * Results must be recorded by a single thread, the batch size may be read by
+ * any thread.
+ * </p>
+ */
+public class BatchSizeController {
+
+    private final int min;
+    private final int max;
+    private final long targetLatency;
+    private final int increment;
+    private final double decrease;
+
+    private volatile int size;
+
+    /**
+     * Create a controller with a fixed batch size.
+     *
+     * @param size the batch size
+     */
+    public BatchSizeController(final int size) {
+        this(size, size, size, Long.MAX_VALUE, 0, 1.0);
+    }
+
+    /**
+     * Create an adaptive controller.
+     *
+     * @param initial the initial batch size
+     * @param min the minimum batch size
+     * @param max the maximum batch size
+     * @param targetLatency the target latency of a write, in milliseconds
+     * @param increment the number of points to add after a fast write
+     * @param decrease the factor to apply after a slow or failed write
+     */
+    public BatchSizeController(final int initial, final int min, final int max, final long targetLatency,
+            final int increment, final double decrease) {
+
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException(String.format("Invalid batch size range: %s - %s", min, max));
+        }
+
+        this.min = min;
+        this.max = max;
+        this.targetLatency = targetLatency;
+        this.increment = increment;
+        this.decrease = decrease;
+        this.size = Math.max(min, Math.min(max, initial));
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * Record a successful write.
+     *
+     * @param points the number of points written
+     * @param latency the time the write took, in milliseconds
+     */
+    public void success(final int points, final long latency) {
+        if (latency > this.targetLatency) {
+            shrink();
+        } else if (points >= this.size) {
+            this.size = Math.min(this.max, this.size + this.increment);
+        }
+    }
+
+    /**
+     * Record a failed write.
+     */
+    public void failure() {
+        shrink();
+    }
+
+    private void shrink() {
+        this.size = Math.max(this.min, (int) (this.size * this.decrease));
+    }
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+/**
+ * Reads bits written by a {@link BitWriter}.
+ */
+public class BitReader {
+
+    private final byte[] buffer;
+    private final int offset;
+    private long position;
+
+    public BitReader(final byte[] buffer, final int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    public long read(int bits) {
+        long result = 0;
+
+        while (bits > 0) {
+            final int idx = this.offset + (int) (this.position >>> 3);
+            final int available = 8 - (int) (this.position & 7);
+            final int n = Math.min(available, bits);
+
+            final int b = (this.buffer[idx] >>> (available - n)) & ((1 << n) - 1);
+            result = result << n | b;
+
+            this.position += n;
+            bits -= n;
+        }
+
+        return result;
+    }
+
+    public boolean read() {
+        final int idx = this.offset + (int) (this.position >>> 3);
+        final boolean result = (this.buffer[idx] & 1 << (7 - (int) (this.position & 7))) != 0;
+        this.position++;
+        return result;
+    }
+
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A growable buffer of bits, most significant bit first.
+ */
+public class BitWriter {
+
+    private byte[] buffer;
+    private long position;
+
+    public BitWriter(final int initialCapacity) {
+        this.buffer = new byte[Math.max(initialCapacity, 8)];
+    }
+
+    /**
+     * Write the lowest bits of a value.
+     *
+     * @param value the value to write
+     * @param bits the number of bits to write, between 0 and 64
+     */
+    public void write(final long value, int bits) {
+        ensure(bits);
+
+        while (bits > 0) {
+            final int idx = (int) (this.position >>> 3);
+            final int free = 8 - (int) (this.position & 7);
+            final int n = Math.min(free, bits);
+
+            final int b = (int) (value >>> (bits - n)) & ((1 << n) - 1);
+            this.buffer[idx] |= b << (free - n);
+
+            this.position += n;
+            bits -= n;
+        }
+    }
+
+    public void write(final boolean bit) {
+        ensure(1);
+
+        if (bit) {
+            this.buffer[(int) (this.position >>> 3)] |= 1 << (7 - (int) (this.position & 7));
+        }
+        this.position++;
+    }
+
+    private void ensure(final int bits) {
+        final long required = (this.position + bits + 7) >>> 3;
+        if (required > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, (int) Math.max(required, this.buffer.length * 2L));
+        }
+    }
+
+    /**
+     * Get the number of bytes written, including a partially written last
+     * byte.
+     */
+    public int length() {
+        return (int) ((this.position + 7) >>> 3);
+    }
+
+    public void writeTo(final DataOutput out) throws IOException {
+        out.write(this.buffer, 0, length());
+    }
+
+}
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import static java.util.Collections.singletonMap;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+
+/**
+ * Limits the number of distinct values per tag key.
+ * <p>
+ * The distinct values of each tag key are counted using a
+ * {@link HyperLogLog}. Once a key exceeds the limit, it is blocked, and its
+ * values are no longer used as tags. Instead they get stored as string fields,
+ * or dropped. Keys which are not in the list of allowed keys, or exceed the
+ * maximum number of keys, are treated the same way.
+ * </p>
+ * <p>
+ * Exempt keys, like the device and tenant id, identify the series. They are
+ * always used as tags, and are neither counted nor blocked. A blocked key may
+ * get unblocked again after some time, starting with a fresh count.
+ * </p>
+ * <p>
+ * The guard is only consulted when the tags of a device get created. Every
+ * time a key gets blocked, the generation is increased, so that cached tags
+ * can be re-created.
+ * </p>
+ */
+public class CardinalityGuard {
+
+    private static final Logger logger = LoggerFactory.getLogger(CardinalityGuard.class);
+
+    public enum Decision {
+        TAG, FIELD, DROP;
+    }
+
+    private final Set<String> allowedKeys;
+    private final Set<String> exemptKeys;
+    private final long limit;
+    private final int maxKeys;
+    private final boolean demote;
+    private final long blockDuration;
+
+    private final Map<String, HyperLogLog> keys = new ConcurrentHashMap<>();
+    private final Map<String, Long> blocked = new ConcurrentHashMap<>();
+
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private final AtomicLong demoted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Create a new guard.
+     *
+     * @param allowedKeys the keys which may be used as tags, all keys are
+     *            allowed when empty
+     * @param exemptKeys the keys which are always used as tags
+     * @param limit the maximum number of distinct values per key
+     * @param maxKeys the maximum number of keys
+     * @param demote {@code true} to store values of blocked keys as fields,
+     *            {@code false} to drop them
+     * @param blockDuration the time in milliseconds after which a blocked key
+     *            gets unblocked, zero to block keys forever
+     */
+    public CardinalityGuard(final Set<String> allowedKeys, final Set<String> exemptKeys, final long limit,
+            final int maxKeys, final boolean demote, final long blockDuration) {
+
+        logger.info("Cardinality guard - allowed keys: {}", allowedKeys.isEmpty() ? "<all>" : allowedKeys);
+        logger.info("                    exempt keys: {}", exemptKeys);
+        logger.info("                    limit: {}", limit);
+        logger.info("                    max keys: {}", maxKeys);
+        logger.info("                    overflow: {}", demote ? "field" : "drop");
+        logger.info("                    block duration: {}", blockDuration > 0 ? blockDuration + " ms" : "<forever>");
+
+        this.allowedKeys = Collections.unmodifiableSet(new HashSet<>(allowedKeys));
+        this.exemptKeys = Collections.unmodifiableSet(new HashSet<>(exemptKeys));
+        this.limit = limit;
+        this.maxKeys = maxKeys;
+        this.demote = demote;
+        this.blockDuration = blockDuration;
+    }
+
+    /**
+     * Decide how to store a tag.
+     *
+     * @param key the tag key
+     * @param value the tag value
+     * @return the decision, never {@code null}
+     */
+    public Decision check(final String key, final String value) {
+
+        if (this.exemptKeys.contains(key)) {
+            return Decision.TAG;
+        }
+
+        if (!this.allowedKeys.isEmpty() && !this.allowedKeys.contains(key)) {
+            return reject();
+        }
+
+        final Long since = this.blocked.get(key);
+        if (since != null) {
+            if (this.blockDuration <= 0 || System.currentTimeMillis() - since < this.blockDuration) {
+                return reject();
+            }
+            unblock(key, since);
+        }
+
+        HyperLogLog values = this.keys.get(key);
+        if (values == null) {
+            if (this.keys.size() >= this.maxKeys) {
+                return reject();
+            }
+            values = this.keys.computeIfAbsent(key, k -> new HyperLogLog());
+        }
+
+        values.add(value);
+
+        if (values.estimate() > this.limit) {
+            if (this.blocked.putIfAbsent(key, System.currentTimeMillis()) == null) {
+                logger.warn("Tag key exceeded the cardinality limit of {}, no longer used as tag: {}",
+                        this.limit, key);
+                this.generation.incrementAndGet();
+            }
+            return reject();
+        }
+
+        return Decision.TAG;
+    }
+
+    private void unblock(final String key, final Long since) {
+        if (this.blocked.remove(key, since)) {
+            logger.info("Tag key unblocked, used as tag again: {}", key);
+            this.keys.remove(key);
+            this.generation.incrementAndGet();
+        }
+    }
+
+    private Decision reject() {
+        if (this.demote) {
+            this.demoted.incrementAndGet();
+            return Decision.FIELD;
+        } else {
+            this.dropped.incrementAndGet();
+            return Decision.DROP;
+        }
+    }
+
+    /**
+     * Get the current generation, which changes whenever a key gets blocked
+     * or unblocked.
+     */
+    public int getGeneration() {
+        return this.generation.get();
+    }
+
+    /**
+     * Report and reset the counters.
+     *
+     * @param now the timestamp of the report
+     * @param metrics the metrics to report to, may be {@code null}
+     */
+    public void report(final Instant now, final InfluxDbMetrics metrics) {
+        final Map<String, Number> values = new HashMap<>(4);
+
+        values.put("keys", this.keys.size());
+        values.put("blocked", this.blocked.size());
+        values.put("demoted", this.demoted.getAndSet(0));
+        values.put("dropped", this.dropped.getAndSet(0));
+
+        if (metrics == null) {
+            return;
+        }
+
+        metrics.updateStats(now, "consumer-tags", values);
+
+        for (final Map.Entry<String, HyperLogLog> entry : this.keys.entrySet()) {
+            final Map<String, Number> key = new HashMap<>(2);
+            key.put("cardinality", entry.getValue().estimate());
+            key.put("blocked", this.blocked.containsKey(entry.getKey()) ? 1 : 0);
+            metrics.updateStats(now, "consumer-tag-keys", singletonMap("key", entry.getKey()), key);
+        }
+    }
+}
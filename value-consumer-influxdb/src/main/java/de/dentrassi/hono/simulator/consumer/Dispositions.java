@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+import io.vertx.proton.ProtonDelivery;
+
+/**
+ * Collects the deliveries of processed events, for settling them in batches.
+ */
+public class Dispositions {
+
+    private Map<TenantLink, List<ProtonDelivery>> pending = new HashMap<>();
+
+    private final AtomicLong unsettled = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+
+    public synchronized void add(final TenantLink link, final ProtonDelivery delivery) {
+        this.pending.computeIfAbsent(link, k -> new ArrayList<>()).add(delivery);
+        this.unsettled.incrementAndGet();
+    }
+
+    /**
+     * Release a delivery right away, as it failed to get processed.
+     *
+     * @param link the link of the delivery
+     * @param delivery the delivery
+     */
+    public void release(final TenantLink link, final ProtonDelivery delivery) {
+        this.unsettled.incrementAndGet();
+        settle(Collections.singletonMap(link, Collections.singletonList(delivery)), false);
+    }
+
+    /**
+     * Take all collected deliveries.
+     *
+     * @return the deliveries, by link
+     */
+    public synchronized Map<TenantLink, List<ProtonDelivery>> drain() {
+        final Map<TenantLink, List<ProtonDelivery>> result = this.pending;
+        this.pending = new HashMap<>();
+        return result;
+    }
+
+    /**
+     * Settle a batch of deliveries, taken by {@link #drain()}.
+     *
+     * @param batch the deliveries
+     * @param accept {@code true} to accept, {@code false} to release the
+     *            deliveries
+     */
+    public void settle(final Map<TenantLink, List<ProtonDelivery>> batch, final boolean accept) {
+        for (final Map.Entry<TenantLink, List<ProtonDelivery>> entry : batch.entrySet()) {
+            final int size = entry.getValue().size();
+            entry.getKey().settle(entry.getValue(), accept, () -> {
+                this.unsettled.addAndGet(-size);
+                (accept ? this.accepted : this.released).addAndGet(size);
+            });
+        }
+    }
+
+    /**
+     * Report and reset the counters.
+     *
+     * @param now the timestamp of the report
+     * @param metrics the metrics to report to, may be {@code null}
+     */
+    public void report(final Instant now, final InfluxDbMetrics metrics) {
+        final Map<String, Number> values = new HashMap<>(4);
+
+        values.put("unsettled", this.unsettled.get());
+        values.put("accepted", this.accepted.getAndSet(0));
+        values.put("released", this.released.getAndSet(0));
+
+        System.out.format("%s: Events - accepted: %s, released: %s, unsettled: %s%n",
+                now, values.get("accepted"), values.get("released"), values.get("unsettled"));
+
+        if (metrics != null) {
+            metrics.updateStats(now, "consumer-events", values);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+/**
+ * Receives the numeric fields of a decoded payload.
+ */
+@FunctionalInterface
+public interface FieldVisitor {
+
+    void field(String name, double value);
+
+    /**
+     * Receive an integer field.
+     * <p>
+     * Integer numbers are reported separately, so that they can be stored as
+     * integers, like the original consumer did.
+     * </p>
+     */
+    default void field(final String name, final long value) {
+        field(name, (double) value);
+    }
+
+}
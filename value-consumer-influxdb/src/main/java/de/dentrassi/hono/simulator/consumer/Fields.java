@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import static de.dentrassi.hono.demo.common.TelemetryPayload.FIELD_SEQUENCE;
+import static de.dentrassi.hono.demo.common.TelemetryPayload.FIELD_TIMESTAMP;
+
+import java.util.Arrays;
+
+/**
+ * The numeric fields of a decoded payload.
+ * <p>
+ * The stamp fields of the simulators are not recorded as fields, but are made
+ * available as send timestamp and sequence number.
+ * </p>
+ */
+public class Fields implements FieldVisitor {
+
+    private String[] names = new String[8];
+    private double[] values = new double[8];
+    private boolean[] integers = new boolean[8];
+    private int size;
+
+    private long timestamp = -1;
+    private long sequence = -1;
+
+    @Override
+    public void field(final String name, final double value) {
+        add(name, value, false);
+    }
+
+    @Override
+    public void field(final String name, final long value) {
+        add(name, value, true);
+    }
+
+    private void add(final String name, final double value, final boolean integer) {
+
+        // field names get interned by the JSON decoder, so we can check for identity first
+
+        if (name == FIELD_TIMESTAMP || name.equals(FIELD_TIMESTAMP)) {
+            this.timestamp = (long) value;
+            return;
+        }
+        if (name == FIELD_SEQUENCE || name.equals(FIELD_SEQUENCE)) {
+            this.sequence = (long) value;
+            return;
+        }
+
+        if (this.size == this.names.length) {
+            this.names = Arrays.copyOf(this.names, this.size * 2);
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+            this.integers = Arrays.copyOf(this.integers, this.size * 2);
+        }
+
+        this.names[this.size] = name;
+        this.values[this.size] = value;
+        this.integers[this.size] = integer;
+        this.size++;
+    }
+
+    /**
+     * Feed all fields to a visitor.
+     */
+    public void visit(final FieldVisitor visitor) {
+        for (int i = 0; i < this.size; i++) {
+            if (this.integers[i]) {
+                visitor.field(this.names[i], (long) this.values[i]);
+            } else {
+                visitor.field(this.names[i], this.values[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public String name(final int index) {
+        return this.names[index];
+    }
+
+    public double value(final int index) {
+        return this.values[index];
+    }
+
+    /**
+     * Test if a field was an integer number in the payload.
+     */
+    public boolean isInteger(final int index) {
+        return this.integers[index];
+    }
+
+    /**
+     * Get the send timestamp.
+     *
+     * @return the send timestamp, in milliseconds since the epoch, or
+     *         {@code -1} if the payload was not stamped
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Get the sequence number.
+     *
+     * @return the sequence number, or {@code -1} if the payload was not
+     *         stamped
+     */
+    public long getSequence() {
+        return this.sequence;
+    }
+
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sink appending records to a local file, in the InfluxDB line protocol.
+ */
+public class FileSink implements Sink {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileSink.class);
+
+    private final LineEncoder encoder;
+    private final Writer writer;
+
+    public FileSink(final Path path, final int tagCacheSize, final CardinalityGuard guard) throws IOException {
+        logger.info("File sink - path: {}", path.toAbsolutePath());
+
+        this.encoder = new LineEncoder(tagCacheSize, guard);
+        this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, CREATE, WRITE, APPEND);
+    }
+
+    @Override
+    public synchronized void accept(final List<Record> records) {
+        try {
+            for (final Record record : records) {
+                final String line = this.encoder.encode(record);
+                if (line != null) {
+                    this.writer.write(line);
+                    this.writer.write('\n');
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> flush() {
+        try {
+            this.writer.flush();
+            return CompletableFuture.completedFuture(null);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            this.writer.close();
+        } catch (final IOException e) {
+            logger.warn("Failed to close file sink", e);
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A block of points of one device, stored in columns.
+ * <p>
+ * The timestamps are stored as delta-of-delta, the values of each field as XOR
+ * with the previous value, following the encoding of the Gorilla paper. A
+ * block has a fixed set of fields, the same for all points of the block.
+ * </p>
+ */
+public class GorillaBlock {
+
+    private final String tenant;
+    private final String device;
+    private final String[] names;
+
+    private final BitWriter timestamps;
+    private final BitWriter[] values;
+
+    private final long[] previousValues;
+    private final int[] previousLeading;
+    private final int[] previousTrailing;
+
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private long previousDelta;
+
+    private int count;
+
+    public GorillaBlock(final String tenant, final String device, final Fields fields) {
+        this.tenant = tenant;
+        this.device = device;
+
+        final int size = fields.size();
+
+        this.names = new String[size];
+        this.values = new BitWriter[size];
+        this.previousValues = new long[size];
+        this.previousLeading = new int[size];
+        this.previousTrailing = new int[size];
+
+        this.timestamps = new BitWriter(32);
+
+        for (int i = 0; i < size; i++) {
+            this.names[i] = fields.name(i);
+            this.values[i] = new BitWriter(64);
+        }
+    }
+
+    /**
+     * Test if the fields have the same names as the fields of this block.
+     */
+    public boolean matches(final Fields fields) {
+        if (fields.size() != this.names.length) {
+            return false;
+        }
+
+        for (int i = 0; i < this.names.length; i++) {
+            final String name = fields.name(i);
+            if (name != this.names[i] && !name.equals(this.names[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public void add(final long timestamp, final Fields fields) {
+        if (this.count == 0) {
+            this.firstTimestamp = timestamp;
+            this.timestamps.write(timestamp, 64);
+            for (int i = 0; i < this.names.length; i++) {
+                final long bits = Double.doubleToRawLongBits(fields.value(i));
+                this.values[i].write(bits, 64);
+                this.previousValues[i] = bits;
+                this.previousLeading[i] = -1;
+            }
+        } else {
+            final long delta = timestamp - this.lastTimestamp;
+            writeDeltaOfDelta(this.timestamps, delta - this.previousDelta);
+            this.previousDelta = delta;
+            for (int i = 0; i < this.names.length; i++) {
+                writeValue(i, Double.doubleToRawLongBits(fields.value(i)));
+            }
+        }
+
+        this.lastTimestamp = timestamp;
+        this.count++;
+    }
+
+    private static void writeDeltaOfDelta(final BitWriter out, final long dod) {
+        if (dod == 0) {
+            out.write(false);
+        } else if (dod >= -64 && dod <= 63) {
+            out.write(0b10, 2);
+            out.write(dod, 7);
+        } else if (dod >= -256 && dod <= 255) {
+            out.write(0b110, 3);
+            out.write(dod, 9);
+        } else if (dod >= -2048 && dod <= 2047) {
+            out.write(0b1110, 4);
+            out.write(dod, 12);
+        } else {
+            out.write(0b1111, 4);
+            out.write(dod, 64);
+        }
+    }
+
+    private void writeValue(final int idx, final long bits) {
+        final BitWriter out = this.values[idx];
+        final long xor = bits ^ this.previousValues[idx];
+        this.previousValues[idx] = bits;
+
+        if (xor == 0) {
+            out.write(false);
+            return;
+        }
+
+        out.write(true);
+
+        final int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        final int trailing = Long.numberOfTrailingZeros(xor);
+
+        if (this.previousLeading[idx] >= 0 && leading >= this.previousLeading[idx]
+                && trailing >= this.previousTrailing[idx]) {
+            // fits into the previous window of meaningful bits
+            out.write(false);
+            out.write(xor >>> this.previousTrailing[idx],
+                    64 - this.previousLeading[idx] - this.previousTrailing[idx]);
+        } else {
+            final int meaningful = 64 - leading - trailing;
+            out.write(true);
+            out.write(leading, 5);
+            out.write(meaningful - 1, 6);
+            out.write(xor >>> trailing, meaningful);
+            this.previousLeading[idx] = leading;
+            this.previousTrailing[idx] = trailing;
+        }
+    }
+
+    public String getTenant() {
+        return this.tenant;
+    }
+
+    public String getDevice() {
+        return this.device;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+
+    public long getFirstTimestamp() {
+        return this.firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return this.lastTimestamp;
+    }
+
+    /**
+     * Get the estimated size of the encoded block.
+     */
+    public int size() {
+        int result = this.timestamps.length();
+        for (final BitWriter value : this.values) {
+            result += value.length();
+        }
+        return result;
+    }
+
+    /**
+     * Write the block.
+     * <p>
+     * The block starts with a header of tenant, device, number of points, time
+     * range and field names. Followed by the timestamp column and one column
+     * per field, each prefixed with its length in bytes.
+     * </p>
+     */
+    public void writeTo(final DataOutput out) throws IOException {
+        out.writeUTF(this.tenant);
+        out.writeUTF(this.device);
+        out.writeInt(this.count);
+        out.writeLong(this.firstTimestamp);
+        out.writeLong(this.lastTimestamp);
+
+        out.writeShort(this.names.length);
+        for (final String name : this.names) {
+            out.writeUTF(name);
+        }
+
+        out.writeInt(this.timestamps.length());
+        this.timestamps.writeTo(out);
+
+        for (final BitWriter value : this.values) {
+            out.writeInt(value.length());
+            value.writeTo(out);
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.influxdb.InfluxDB;
+import org.influxdb.InfluxDBFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.dentrassi.hono.demo.common.Histogram;
+import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+import de.dentrassi.hono.demo.common.MetricsRegistry;
+import io.vertx.core.Context;
+
+/**
+ * One InfluxDB database, receiving a share of the points.
+ * <p>
+ * Each shard batches its lines and writes them on a writer thread of its own.
+ * Failed writes are retried by this writer, so that a failing shard does not
+ * delay the others. The number of batches waiting for the writer is limited,
+ * once the limit is reached, writing blocks the caller. Except for callers on
+ * an event loop, which also serves the AMQP connection: for those, the batch
+ * is dropped, and the next flush fails.
+ * </p>
+ */
+public class InfluxDbShard {
+
+    private static final Logger logger = LoggerFactory.getLogger(InfluxDbShard.class);
+
+    private final int index;
+    private final String uri;
+    private final String databaseName;
+
+    private final InfluxDB db;
+    private final BatchSizeController batchSize;
+    private final int retries;
+
+    private final ExecutorService writer;
+    private final Semaphore pending;
+
+    private List<String> batch;
+
+    private final AtomicReference<Exception> error = new AtomicReference<>();
+
+    private final Histogram latency;
+    private final AtomicLong points = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean healthy = true;
+
+    public InfluxDbShard(final int index, final String uri, final String username, final String password,
+            final String databaseName, final BatchSizeController batchSize, final int maxPending, final int retries) {
+
+        logger.info("InfluxDB - payload - shard #{}: {} / {}", index, uri, databaseName);
+
+        this.index = index;
+        this.uri = uri;
+        this.databaseName = databaseName;
+        this.batchSize = batchSize;
+        this.retries = retries;
+
+        this.db = InfluxDBFactory.connect(uri, username, password);
+
+        if (!this.db.databaseExists(databaseName)) {
+            this.db.createDatabase(databaseName);
+        }
+
+        this.db.setDatabase(databaseName);
+
+        this.batch = new ArrayList<>(batchSize.getSize());
+        this.pending = new Semaphore(maxPending);
+
+        final MetricsRegistry registry = MetricsRegistry.getDefault();
+        final String shard = Integer.toString(index);
+        this.latency = registry.histogram("consumer_shard_write_latency_ms",
+                "Time to write a batch to InfluxDB, in milliseconds", new Histogram(), "shard", shard);
+        registry.gauge("consumer_shard_healthy", "Whether the last write to the shard succeeded",
+                () -> this.healthy ? 1 : 0, "shard", shard);
+        registry.gauge("consumer_shard_batch_size", "Current batch size of the shard",
+                batchSize::getSize, "shard", shard);
+
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            final Thread t = new Thread(r, "influxdb-writer-" + index);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void write(final String line) {
+        final List<String> full;
+
+        synchronized (this) {
+            this.batch.add(line);
+            if (this.batch.size() < this.batchSize.getSize()) {
+                return;
+            }
+            full = this.batch;
+            this.batch = new ArrayList<>(this.batchSize.getSize());
+        }
+
+        if (!submit(() -> writeBatch(full))) {
+            logger.debug("Shard #{} is backlogged, dropping batch of {} points", this.index, full.size());
+            this.dropped.addAndGet(full.size());
+            this.error.set(new IllegalStateException(String.format("Shard #%s is backlogged", this.index)));
+        }
+    }
+
+    /**
+     * Write all pending lines.
+     *
+     * @return a future, completing once all lines written before the call
+     *         have been stored
+     */
+    public CompletableFuture<Void> flush() {
+        final List<String> lines;
+
+        synchronized (this) {
+            lines = this.batch;
+            this.batch = new ArrayList<>(this.batchSize.getSize());
+        }
+
+        // the writer is single threaded, so all previous batches are written when this one is
+
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        final boolean submitted = submit(() -> {
+            if (!lines.isEmpty()) {
+                writeBatch(lines);
+            }
+
+            final Exception e = this.error.getAndSet(null);
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(null);
+            }
+        });
+
+        if (!submitted) {
+            this.dropped.addAndGet(lines.size());
+            result.completeExceptionally(
+                    new IllegalStateException(String.format("Shard #%s is backlogged", this.index)));
+        }
+
+        return result;
+    }
+
+    private boolean submit(final Runnable task) {
+        if (!this.pending.tryAcquire()) {
+            if (Context.isOnEventLoopThread()) {
+                // never block the event loop
+                return false;
+            }
+            // back-pressure, wait for the writer to catch up
+            this.pending.acquireUninterruptibly();
+        }
+
+        try {
+            this.writer.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    this.pending.release();
+                }
+            });
+        } catch (final RuntimeException e) {
+            this.pending.release();
+            throw e;
+        }
+
+        return true;
+    }
+
+    private void writeBatch(final List<String> lines) {
+        for (int attempt = 0;; attempt++) {
+            final long start = System.nanoTime();
+            try {
+                this.db.write(lines);
+
+                final long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                this.latency.record(duration);
+                this.batchSize.success(lines.size(), duration);
+                this.points.addAndGet(lines.size());
+                this.batches.incrementAndGet();
+                this.healthy = true;
+                return;
+
+            } catch (final Exception e) {
+                this.errors.incrementAndGet();
+                this.healthy = false;
+                this.batchSize.failure();
+
+                if (attempt >= this.retries) {
+                    logger.warn("Failed to write batch of {} points to shard #{}", lines.size(), this.index, e);
+                    this.dropped.addAndGet(lines.size());
+                    this.error.set(e);
+                    return;
+                }
+
+                this.retried.incrementAndGet();
+
+                try {
+                    Thread.sleep(100L << attempt);
+                } catch (final InterruptedException e1) {
+                    Thread.currentThread().interrupt();
+                    this.dropped.addAndGet(lines.size());
+                    this.error.set(e);
+                    return;
+                }
+            }
+        }
+    }
+
+    public void close() {
+        flush();
+
+        this.writer.shutdown();
+        try {
+            this.writer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        this.db.close();
+    }
+
+    /**
+     * Report and reset the stats of the shard.
+     *
+     * @param now the timestamp of the report
+     * @param metrics the metrics to report to, may be {@code null}
+     */
+    public void report(final Instant now, final InfluxDbMetrics metrics) {
+        final Map<String, String> tags = new HashMap<>(4);
+        tags.put("shard", Integer.toString(this.index));
+        tags.put("url", this.uri);
+        tags.put("database", this.databaseName);
+
+        final Map<String, Number> values = this.latency.snapshot().toValues();
+        values.put("points", this.points.getAndSet(0));
+        values.put("batches", this.batches.getAndSet(0));
+        values.put("errors", this.errors.getAndSet(0));
+        values.put("retries", this.retried.getAndSet(0));
+        values.put("dropped", this.dropped.getAndSet(0));
+        values.put("healthy", this.healthy ? 1 : 0);
+        values.put("batchSize", this.batchSize.getSize());
+
+        final long points = values.get("points").longValue();
+        final long batches = values.get("batches").longValue();
+        values.put("pointsPerRequest", batches > 0 ? (double) points / batches : 0.0);
+
+        System.out.format(
+                "%s: Shard #%s - points: %s, batches: %s, batch size: %s, errors: %s, retries: %s, dropped: %s, healthy: %s%n",
+                now, this.index, points, batches, values.get("batchSize"), values.get("errors"),
+                values.get("retries"), values.get("dropped"), this.healthy);
+
+        if (metrics != null) {
+            metrics.updateStats(now, "consumer-shard", tags, values);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import de.dentrassi.hono.demo.common.Config;
+import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+
+/**
+ * A sink storing records in InfluxDB.
+ * <p>
+ * Records may be spread over multiple databases, called shards. The shard is
+ * selected by a stable hash of the device id, so that all points of a device
+ * end up in the same database.
+ * </p>
+ */
+public class InfluxDbSink implements Sink {
+
+    private static final Logger logger = LoggerFactory.getLogger(InfluxDbSink.class);
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final int batchSize = Integer.parseInt(System.getenv().getOrDefault("INFLUXDB_BATCH_SIZE", "20"));
+
+    private final boolean adaptive = Boolean.parseBoolean(System.getenv().getOrDefault("INFLUXDB_BATCH_ADAPTIVE", "true"));
+
+    private final int batchSizeMin = Integer.parseInt(System.getenv().getOrDefault("INFLUXDB_BATCH_SIZE_MIN", "10"));
+
+    private final int batchSizeMax = Integer.parseInt(System.getenv().getOrDefault("INFLUXDB_BATCH_SIZE_MAX", "5000"));
+
+    private final int batchSizeStep = Integer.parseInt(System.getenv().getOrDefault("INFLUXDB_BATCH_SIZE_STEP", "20"));
+
+    private final long targetLatency = Config
+            .parseDuration(System.getenv().getOrDefault("INFLUXDB_TARGET_LATENCY", "200ms"));
+
+    private final int maxPending = Integer.parseInt(System.getenv().getOrDefault("INFLUXDB_MAX_PENDING", "16"));
+
+    private final int retries = Integer.parseInt(System.getenv().getOrDefault("INFLUXDB_RETRIES", "3"));
+
+    private final long aggregationWindow = Config.parseDuration(System.getenv("AGGREGATION_WINDOW"));
+
+    private final Set<String> rawDevices = Config.parseSet(System.getenv("AGGREGATION_RAW_DEVICES"));
+
+    private final InfluxDbShard[] shards;
+
+    private final WindowAggregator[] aggregators;
+
+    private final LineEncoder encoder;
+
+    public InfluxDbSink(final List<String> uris, final String username, final String password,
+            final List<String> databaseNames, final int tagCacheSize, final CardinalityGuard guard) {
+
+        if (uris.size() != databaseNames.size() || uris.isEmpty()) {
+            throw new IllegalArgumentException("Number of URLs and database names must match");
+        }
+
+        logger.info("InfluxDB - payload - shards: {}", uris.size());
+        if (this.adaptive) {
+            logger.info("           payload - batch size: {} ({} - {}), target latency: {} ms", this.batchSize,
+                    this.batchSizeMin, this.batchSizeMax, this.targetLatency);
+        } else {
+            logger.info("           payload - batch size: {}", this.batchSize);
+        }
+        logger.info("           payload - max pending batches: {}", this.maxPending);
+        logger.info("           payload - retries: {}", this.retries);
+        logger.info("           payload - aggregation window: {} ms", this.aggregationWindow);
+        logger.info("           payload - raw devices: {}", this.rawDevices);
+
+        this.encoder = new LineEncoder(tagCacheSize, guard);
+
+        this.shards = new InfluxDbShard[uris.size()];
+        this.aggregators = new WindowAggregator[uris.size()];
+
+        for (int i = 0; i < this.shards.length; i++) {
+            final InfluxDbShard shard = new InfluxDbShard(i, uris.get(i), username, password,
+                    databaseNames.get(i), createBatchSizeController(), this.maxPending, this.retries);
+            this.shards[i] = shard;
+
+            // aggregate per shard, so that aggregated points stay with their shard
+
+            if (this.aggregationWindow > 0) {
+                this.aggregators[i] = new WindowAggregator(this.aggregationWindow, shard::write);
+            }
+        }
+    }
+
+    private BatchSizeController createBatchSizeController() {
+        if (!this.adaptive) {
+            return new BatchSizeController(this.batchSize);
+        }
+
+        // grow step by step, but back off fast
+        return new BatchSizeController(this.batchSize, this.batchSizeMin, this.batchSizeMax, this.targetLatency,
+                this.batchSizeStep, 0.5);
+    }
+
+    @Override
+    public void close() {
+        for (final WindowAggregator aggregator : this.aggregators) {
+            if (aggregator != null) {
+                aggregator.close();
+            }
+        }
+
+        for (final InfluxDbShard shard : this.shards) {
+            shard.close();
+        }
+    }
+
+    @Override
+    public void accept(final List<Record> records) {
+        for (final Record record : records) {
+            accept(record);
+        }
+    }
+
+    private int shardOf(final String device) {
+        if (this.shards.length == 1) {
+            return 0;
+        }
+        return Hashing.consistentHash(HASH.hashString(device, UTF_8), this.shards.length);
+    }
+
+    private void accept(final Record record) {
+
+        final String device = record.getDevice();
+        final TagCache.Tags tags = this.encoder.tags(record);
+        final int shard = shardOf(device);
+
+        final WindowAggregator aggregator = this.aggregators[shard];
+
+        if (aggregator != null && !device.isEmpty() && !this.rawDevices.contains(device)) {
+            // the tag set is unique per series, and the same instance for all messages of a device
+            // demoted string fields cannot be aggregated, and are not stored
+            final String tagSet = tags.getTagSet();
+            final Fields fields = record.getFields();
+            for (int i = 0; i < fields.size(); i++) {
+                aggregator.add(tagSet, tagSet, fields.name(i), fields.value(i), fields.isInteger(i));
+            }
+            return;
+        }
+
+        final String line = this.encoder.encode(tags, record);
+        if (line != null) {
+            this.shards[shard].write(line);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[this.shards.length];
+        for (int i = 0; i < this.shards.length; i++) {
+            futures[i] = this.shards[i].flush();
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    @Override
+    public void report(final Instant now, final InfluxDbMetrics metrics) {
+        for (final InfluxDbShard shard : this.shards) {
+            shard.report(now, metrics);
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Decodes the top level fields of a JSON object, directly from the raw bytes.
+ * <p>
+ * Numbers, and strings which can be parsed as numbers, are reported. Nested
+ * structures and other values are skipped.
+ * </p>
+ * <p>
+ * With a schema cache, the shape of the payload is learned per key. Following
+ * payloads of the same shape get decoded by the learned schema. Only when the
+ * shape changes, the payload is decoded again, by the generic decoder.
+ * </p>
+ */
+public class JsonPayloadDecoder implements PayloadDecoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonPayloadDecoder.class);
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final SchemaCache schemas;
+
+    public JsonPayloadDecoder() {
+        this(null);
+    }
+
+    public JsonPayloadDecoder(final SchemaCache schemas) {
+        this.schemas = schemas;
+    }
+
+    @Override
+    public boolean decode(final String key, final byte[] data, final int offset, final int length,
+            final FieldVisitor visitor) {
+
+        final PayloadSchema schema = schema(key);
+
+        if (schema != null) {
+            try (JsonParser parser = FACTORY.createParser(data, offset, length)) {
+                if (extract(schema, parser, visitor)) {
+                    return true;
+                }
+            } catch (final IOException e) {
+                logger.debug("Failed to parse payload", e);
+                return false;
+            }
+        }
+
+        try (JsonParser parser = FACTORY.createParser(data, offset, length)) {
+            return decode(key, parser, visitor);
+        } catch (final IOException e) {
+            logger.debug("Failed to parse payload", e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean decode(final String key, final String data, final FieldVisitor visitor) {
+
+        final PayloadSchema schema = schema(key);
+
+        if (schema != null) {
+            try (JsonParser parser = FACTORY.createParser(data)) {
+                if (extract(schema, parser, visitor)) {
+                    return true;
+                }
+            } catch (final IOException e) {
+                logger.debug("Failed to parse payload", e);
+                return false;
+            }
+        }
+
+        try (JsonParser parser = FACTORY.createParser(data)) {
+            return decode(key, parser, visitor);
+        } catch (final IOException e) {
+            logger.debug("Failed to parse payload", e);
+            return false;
+        }
+    }
+
+    private PayloadSchema schema(final String key) {
+        if (this.schemas == null || key == null) {
+            return null;
+        }
+        return this.schemas.get(key);
+    }
+
+    private boolean extract(final PayloadSchema schema, final JsonParser parser, final FieldVisitor visitor)
+            throws IOException {
+
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+
+        final boolean result = schema.extract(parser, visitor);
+        this.schemas.extracted(result);
+        return result;
+    }
+
+    private boolean decode(final String key, final JsonParser parser, final FieldVisitor visitor)
+            throws IOException {
+
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+
+        final PayloadSchema.Builder schema = this.schemas != null && key != null ? new PayloadSchema.Builder()
+                : null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+
+            byte kind = PayloadSchema.kindOf(token);
+
+            switch (kind) {
+            case PayloadSchema.NUMBER:
+                if (PayloadSchema.isInteger(parser, token)) {
+                    visitor.field(name, parser.getLongValue());
+                } else {
+                    visitor.field(name, parser.getDoubleValue());
+                }
+                break;
+            case PayloadSchema.TEXT:
+                if (PayloadSchema.isNumber(parser)) {
+                    kind = PayloadSchema.NUMERIC_STRING;
+                    visitor.field(name, Double.parseDouble(parser.getText()));
+                }
+                break;
+            default:
+                parser.skipChildren();
+                break;
+            }
+
+            if (schema != null) {
+                schema.add(name, kind);
+            }
+        }
+
+        if (schema != null) {
+            this.schemas.learned(key, schema.build());
+        }
+
+        return true;
+    }
+
+}
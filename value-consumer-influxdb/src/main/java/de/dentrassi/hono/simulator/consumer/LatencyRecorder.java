@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import static java.util.Collections.singletonMap;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.dentrassi.hono.demo.common.Histogram;
+import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+import de.dentrassi.hono.demo.common.MetricsRegistry;
+
+/**
+ * Records the end-to-end latency of stamped messages, per tenant.
+ * <p>
+ * The latency is the difference between the time the consumer received the
+ * message and the send timestamp in the payload. So the clocks of the
+ * simulators and the consumer must be synchronized. Negative values, caused by
+ * clock skew, are recorded as zero.
+ * </p>
+ */
+public class LatencyRecorder {
+
+    private final Map<String, Histogram> tenants = new ConcurrentHashMap<>();
+
+    public void record(final String tenant, final long received, final long sent) {
+        this.tenants.computeIfAbsent(tenant, x -> MetricsRegistry.getDefault().histogram("consumer_latency_ms",
+                "End-to-end latency of stamped messages, in milliseconds", new Histogram(), "tenant", tenant))
+                .record(received - sent);
+    }
+
+    /**
+     * Report and reset the histograms of all tenants.
+     *
+     * @param now the timestamp of the report
+     * @param metrics the metrics to report to, may be {@code null}
+     */
+    public void report(final Instant now, final InfluxDbMetrics metrics) {
+        for (final Map.Entry<String, Histogram> entry : this.tenants.entrySet()) {
+
+            final Histogram.Snapshot snapshot = entry.getValue().snapshot();
+            if (snapshot.getCount() <= 0) {
+                continue;
+            }
+
+            System.out.format("%s: Latency - tenant: %s, count: %s, mean: %.1f ms, p99: %s ms, max: %s ms%n",
+                    now, entry.getKey(), snapshot.getCount(), snapshot.getMean(), snapshot.getValueAt(0.99),
+                    snapshot.getMax());
+
+            if (metrics != null) {
+                metrics.updateStats(now, "consumer-latency", singletonMap("tenant", entry.getKey()),
+                        snapshot.toValues());
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+/**
+ * Encodes records as InfluxDB line protocol, in the measurement {@code P}.
+ */
+public class LineEncoder {
+
+    private static final class LineVisitor implements FieldVisitor {
+
+        private final StringBuilder sb;
+        private boolean empty = true;
+
+        private LineVisitor(final String tagSet) {
+            this.sb = new StringBuilder(128).append("P").append(tagSet).append(' ');
+        }
+
+        @Override
+        public void field(final String name, final double value) {
+            if (LineProtocol.appendField(this.sb, this.empty, name, value)) {
+                this.empty = false;
+            }
+        }
+
+        @Override
+        public void field(final String name, final long value) {
+            LineProtocol.appendField(this.sb, this.empty, name, value);
+            this.empty = false;
+        }
+    }
+
+    private final TagCache tags;
+
+    public LineEncoder(final int tagCacheSize, final CardinalityGuard guard) {
+        this.tags = new TagCache(tagCacheSize, guard);
+    }
+
+    /**
+     * Get the tags of a record.
+     */
+    public TagCache.Tags tags(final Record record) {
+        return this.tags.lookup(record.getKey(), record.getAnnotations());
+    }
+
+    /**
+     * Encode a record.
+     *
+     * @return the line, or {@code null} if the record has no fields which can
+     *         be encoded
+     */
+    public String encode(final Record record) {
+        return encode(tags(record), record);
+    }
+
+    /**
+     * Encode a record, using known tags.
+     *
+     * @return the line, or {@code null} if the record has no fields which can
+     *         be encoded
+     */
+    public String encode(final TagCache.Tags tags, final Record record) {
+
+        final LineVisitor line = new LineVisitor(tags.getTagSet());
+        record.getFields().visit(line);
+
+        if (line.empty) {
+            // InfluxDB does not accept points without fields
+            return null;
+        }
+
+        if (!tags.getFields().isEmpty()) {
+            line.sb.append(',').append(tags.getFields());
+        }
+
+        LineProtocol.appendTimestamp(line.sb, record.getReceived());
+
+        return line.sb.toString();
+    }
+
+}
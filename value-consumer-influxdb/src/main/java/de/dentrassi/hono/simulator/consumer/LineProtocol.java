@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Helpers for writing the InfluxDB line protocol.
+ */
+public final class LineProtocol {
+
+    private LineProtocol() {
+    }
+
+    /**
+     * Escape a measurement name.
+     */
+    public static void appendMeasurement(final StringBuilder sb, final String measurement) {
+        for (int i = 0; i < measurement.length(); i++) {
+            final char c = measurement.charAt(i);
+            if (c == ',' || c == ' ') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+    }
+
+    /**
+     * Escape a tag key, tag value or field key.
+     */
+    public static void appendKey(final StringBuilder sb, final String key) {
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            if (c == ',' || c == ' ' || c == '=') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+    }
+
+    /**
+     * Create the escaped tag set.
+     * <p>
+     * Tags are sorted by key, as recommended by InfluxDB. Each tag is
+     * prefixed with a comma, so that the result can directly be appended to
+     * the measurement name.
+     * </p>
+     */
+    public static String tagSet(final Map<String, String> tags) {
+        final StringBuilder sb = new StringBuilder(64);
+
+        for (final Map.Entry<String, String> tag : new TreeMap<>(tags).entrySet()) {
+            if (tag.getValue() == null || tag.getValue().isEmpty()) {
+                continue;
+            }
+            sb.append(',');
+            appendKey(sb, tag.getKey());
+            sb.append('=');
+            appendKey(sb, tag.getValue());
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Append a float field.
+     *
+     * @return {@code false} if the value cannot be represented, in which case
+     *         nothing was appended
+     */
+    public static boolean appendField(final StringBuilder sb, final boolean first, final String key,
+            final double value) {
+
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return false;
+        }
+
+        if (!first) {
+            sb.append(',');
+        }
+
+        appendKey(sb, key);
+        sb.append('=').append(value);
+
+        return true;
+    }
+
+    /**
+     * Append an integer field.
+     */
+    public static void appendField(final StringBuilder sb, final boolean first, final String key,
+            final long value) {
+
+        if (!first) {
+            sb.append(',');
+        }
+
+        appendKey(sb, key);
+        sb.append('=').append(value).append('i');
+    }
+
+    /**
+     * Append a string field.
+     */
+    public static void appendField(final StringBuilder sb, final boolean first, final String key,
+            final String value) {
+
+        if (!first) {
+            sb.append(',');
+        }
+
+        appendKey(sb, key);
+        sb.append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Append the timestamp, in nanoseconds, to a line.
+     */
+    public static void appendTimestamp(final StringBuilder sb, final long millis) {
+        sb.append(' ').append(millis).append("000000");
+    }
+
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A sink which only counts records, for measuring the cost of receiving and
+ * decoding messages.
+ */
+public class NullSink implements Sink {
+
+    private static final Logger logger = LoggerFactory.getLogger(NullSink.class);
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong fields = new AtomicLong();
+
+    @Override
+    public void accept(final List<Record> records) {
+        long fields = 0;
+        for (final Record record : records) {
+            fields += record.getFields().size();
+        }
+
+        this.records.addAndGet(records.size());
+        this.fields.addAndGet(fields);
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void close() {
+        logger.info("Null sink - records: {}, fields: {}", this.records.get(), this.fields.get());
+    }
+
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+/**
+ * Helpers for parsing numbers.
+ */
+public final class Numbers {
+
+    private Numbers() {
+    }
+
+    /**
+     * Test if a string is a plain decimal number, like {@code -1}, {@code 1.5}
+     * or {@code 1e-3}.
+     * <p>
+     * This is a subset of what {@link Double#parseDouble(String)} accepts, but
+     * allows checking strings without creating and catching exceptions.
+     * Hexadecimal numbers, {@code NaN} and {@code Infinity} are not accepted.
+     * </p>
+     */
+    public static boolean isNumber(final char[] buffer, final int offset, final int length) {
+        int i = offset;
+        int end = offset + length;
+
+        while (i < end && buffer[i] <= ' ') {
+            i++;
+        }
+        while (end > i && buffer[end - 1] <= ' ') {
+            end--;
+        }
+
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            i++;
+        }
+
+        int digits = 0;
+        while (i < end && isDigit(buffer[i])) {
+            i++;
+            digits++;
+        }
+
+        if (i < end && buffer[i] == '.') {
+            i++;
+            while (i < end && isDigit(buffer[i])) {
+                i++;
+                digits++;
+            }
+        }
+
+        if (digits == 0) {
+            return false;
+        }
+
+        if (i < end && (buffer[i] == 'e' || buffer[i] == 'E')) {
+            i++;
+            if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+                i++;
+            }
+            final int start = i;
+            while (i < end && isDigit(buffer[i])) {
+                i++;
+            }
+            if (i == start) {
+                return false;
+            }
+        }
+
+        return i == end;
+    }
+
+    public static boolean isNumber(final String value) {
+        return isNumber(value.toCharArray(), 0, value.length());
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+}
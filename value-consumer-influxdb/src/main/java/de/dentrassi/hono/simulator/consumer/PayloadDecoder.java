@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+/**
+ * Decodes a payload into numeric fields.
+ */
+public interface PayloadDecoder {
+
+    /**
+     * Decode a payload from its raw bytes.
+     * <p>
+     * The data must not be retained after the call returns.
+     * </p>
+     *
+     * @param key the source of the payload, e.g. the device ID, may be
+     *            {@code null}
+     * @return {@code true} if the payload could be decoded
+     */
+    boolean decode(String key, byte[] data, int offset, int length, FieldVisitor visitor);
+
+    /**
+     * Decode a payload which was received as a string.
+     *
+     * @param key the source of the payload, e.g. the device ID, may be
+     *            {@code null}
+     * @return {@code true} if the payload could be decoded
+     */
+    boolean decode(String key, String data, FieldVisitor visitor);
+
+}
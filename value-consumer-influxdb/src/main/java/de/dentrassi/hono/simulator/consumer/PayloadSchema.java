@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * The learned shape of a JSON payload: the names, types and order of its top
+ * level fields.
+ * <p>
+ * A schema works as an extractor for payloads of the same shape. It only
+ * checks that the next field has the expected name and type, instead of
+ * dispatching on each token. If the payload does not match, the caller must
+ * fall back to the generic decoder.
+ * </p>
+ */
+public class PayloadSchema {
+
+    /**
+     * A JSON number.
+     */
+    public static final byte NUMBER = 0;
+
+    /**
+     * A string, which holds a number.
+     */
+    public static final byte NUMERIC_STRING = 1;
+
+    /**
+     * A string, which does not hold a number.
+     */
+    public static final byte TEXT = 2;
+
+    /**
+     * Anything else, like objects, arrays or booleans.
+     */
+    public static final byte OTHER = 3;
+
+    private final String[] names;
+    private final byte[] kinds;
+
+    private PayloadSchema(final String[] names, final byte[] kinds) {
+        this.names = names;
+        this.kinds = kinds;
+    }
+
+    public int size() {
+        return this.names.length;
+    }
+
+    /**
+     * Extract the fields of a payload.
+     * <p>
+     * Fields are only handed to the visitor if the whole payload matches the
+     * schema.
+     * </p>
+     *
+     * @param parser the parser, positioned after the start of the top level
+     *            object
+     * @param visitor the visitor receiving the fields
+     * @return {@code true} if the payload matched the schema
+     */
+    public boolean extract(final JsonParser parser, final FieldVisitor visitor) throws IOException {
+
+        final double[] values = new double[this.names.length];
+        final boolean[] integers = new boolean[this.names.length];
+
+        for (int i = 0; i < this.names.length; i++) {
+
+            if (parser.nextToken() != JsonToken.FIELD_NAME) {
+                return false;
+            }
+
+            // field names get interned by the parser
+
+            final String name = parser.getCurrentName();
+            if (name != this.names[i] && !name.equals(this.names[i])) {
+                return false;
+            }
+
+            final JsonToken token = parser.nextToken();
+
+            switch (this.kinds[i]) {
+            case NUMBER:
+                if (token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT) {
+                    return false;
+                }
+                integers[i] = isInteger(parser, token);
+                values[i] = integers[i] ? parser.getLongValue() : parser.getDoubleValue();
+                break;
+            case NUMERIC_STRING:
+                if (token != JsonToken.VALUE_STRING || !isNumber(parser)) {
+                    return false;
+                }
+                values[i] = Double.parseDouble(parser.getText());
+                break;
+            case TEXT:
+                if (token != JsonToken.VALUE_STRING || isNumber(parser)) {
+                    return false;
+                }
+                break;
+            default:
+                if (kindOf(token) != OTHER) {
+                    return false;
+                }
+                parser.skipChildren();
+                break;
+            }
+        }
+
+        if (parser.nextToken() != JsonToken.END_OBJECT) {
+            return false;
+        }
+
+        for (int i = 0; i < this.names.length; i++) {
+            if (integers[i]) {
+                visitor.field(this.names[i], (long) values[i]);
+            } else if (this.kinds[i] == NUMBER || this.kinds[i] == NUMERIC_STRING) {
+                visitor.field(this.names[i], values[i]);
+            }
+        }
+
+        return true;
+    }
+
+    static boolean isNumber(final JsonParser parser) throws IOException {
+        return Numbers.isNumber(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    }
+
+    /**
+     * Test if a number token is an integer, which fits into a {@code long}.
+     */
+    static boolean isInteger(final JsonParser parser, final JsonToken token) throws IOException {
+        if (token != JsonToken.VALUE_NUMBER_INT) {
+            return false;
+        }
+        final JsonParser.NumberType type = parser.getNumberType();
+        return type == JsonParser.NumberType.INT || type == JsonParser.NumberType.LONG;
+    }
+
+    static byte kindOf(final JsonToken token) {
+        switch (token) {
+        case VALUE_NUMBER_INT:
+        case VALUE_NUMBER_FLOAT:
+            return NUMBER;
+        case VALUE_STRING:
+            return TEXT;
+        default:
+            return OTHER;
+        }
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PayloadSchema)) {
+            return false;
+        }
+
+        final PayloadSchema other = (PayloadSchema) obj;
+        return Arrays.equals(this.names, other.names) && Arrays.equals(this.kinds, other.kinds);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(this.names) + Arrays.hashCode(this.kinds);
+    }
+
+    /**
+     * Records the shape of a payload, while decoding it with the generic
+     * decoder.
+     */
+    public static class Builder {
+
+        private String[] names = new String[8];
+        private byte[] kinds = new byte[8];
+        private int size;
+
+        public void add(final String name, final byte kind) {
+            if (this.size == this.names.length) {
+                this.names = Arrays.copyOf(this.names, this.size * 2);
+                this.kinds = Arrays.copyOf(this.kinds, this.size * 2);
+            }
+
+            this.names[this.size] = name;
+            this.kinds[this.size] = kind;
+            this.size++;
+        }
+
+        public PayloadSchema build() {
+            return new PayloadSchema(Arrays.copyOf(this.names, this.size), Arrays.copyOf(this.kinds, this.size));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Section;
+import org.apache.qpid.proton.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the body of a message into fields.
+ * <p>
+ * The body is passed to the decoders as a view on the buffer of the received
+ * message, without copying it. The decoder is selected by the content type of
+ * the message, falling back to sniffing the payload. Decoding the payload as
+ * text is only used as a last resort.
+ * </p>
+ */
+public class Payloads {
+
+    private static final Logger logger = LoggerFactory.getLogger(Payloads.class);
+
+    private final PayloadDecoder json;
+    private final PayloadDecoder text = new TextPayloadDecoder();
+
+    public Payloads() {
+        this(null);
+    }
+
+    /**
+     * Create a new instance.
+     *
+     * @param schemas the cache for learned payload schemas, may be
+     *            {@code null}
+     */
+    public Payloads(final SchemaCache schemas) {
+        this.json = new JsonPayloadDecoder(schemas);
+    }
+
+    /**
+     * Decode the body of a message.
+     *
+     * @param msg the message to decode
+     * @param key the source of the message, for looking up its payload
+     *            schema, may be {@code null}
+     * @param visitor the visitor receiving the fields
+     * @return {@code true} if the body could be decoded
+     */
+    public boolean decode(final Message msg, final String key, final FieldVisitor visitor) {
+
+        final Section body = msg.getBody();
+
+        if (body instanceof Data) {
+
+            final Binary binary = ((Data) body).getValue();
+            if (binary == null) {
+                logger.info("Missing body value");
+                return false;
+            }
+
+            return decode(msg.getContentType(), key, binary.getArray(), binary.getArrayOffset(),
+                    binary.getLength(), visitor);
+
+        } else if (body instanceof AmqpValue) {
+
+            final Object value = ((AmqpValue) body).getValue();
+
+            if (value == null) {
+                logger.info("Missing body value");
+                return false;
+            }
+
+            if (value instanceof byte[]) {
+                final byte[] data = (byte[]) value;
+                return decode(msg.getContentType(), key, data, 0, data.length, visitor);
+            } else if (value instanceof Binary) {
+                final Binary binary = (Binary) value;
+                return decode(msg.getContentType(), key, binary.getArray(), binary.getArrayOffset(),
+                        binary.getLength(), visitor);
+            } else if (value instanceof String) {
+                final String data = (String) value;
+                return select(msg.getContentType(), firstChar(data)).decode(key, data, visitor);
+            } else {
+                logger.info("Unsupported body type: {}", value.getClass());
+                return false;
+            }
+
+        } else {
+            logger.info("Unsupported body type: {}", body == null ? null : body.getClass());
+            return false;
+        }
+    }
+
+    private boolean decode(final String contentType, final String key, final byte[] data, final int offset,
+            final int length, final FieldVisitor visitor) {
+        return select(contentType, firstByte(data, offset, length)).decode(key, data, offset, length, visitor);
+    }
+
+    private PayloadDecoder select(final String contentType, final int first) {
+
+        if (contentType != null) {
+            if (isJson(contentType)) {
+                return this.json;
+            }
+            if (contentType.regionMatches(true, 0, "text/", 0, 5)) {
+                return this.text;
+            }
+        }
+
+        // no or unknown content type, sniff
+
+        if (first == '{') {
+            return this.json;
+        }
+
+        return this.text;
+    }
+
+    private static boolean isJson(final String contentType) {
+        int end = contentType.indexOf(';');
+        if (end < 0) {
+            end = contentType.length();
+        }
+
+        while (end > 0 && contentType.charAt(end - 1) == ' ') {
+            end--;
+        }
+
+        return contentType.regionMatches(true, 0, "application/json", 0, end) && end == 16
+                || contentType.regionMatches(true, 0, "text/json", 0, end) && end == 9
+                || contentType.regionMatches(true, end - 5, "+json", 0, 5);
+    }
+
+    private static int firstByte(final byte[] data, final int offset, final int length) {
+        for (int i = offset; i < offset + length; i++) {
+            final byte b = data[i];
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return b;
+            }
+        }
+        return -1;
+    }
+
+    private static int firstChar(final String data) {
+        for (int i = 0; i < data.length(); i++) {
+            final char c = data.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.qpid.proton.message.Message;
+import org.eclipse.hono.client.HonoClient;
+import org.eclipse.hono.client.MessageConsumer;
+import org.eclipse.hono.client.impl.HonoClientImpl;
+import org.eclipse.hono.config.ClientConfigProperties;
+import org.eclipse.hono.connection.ConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.proton.ProtonClientOptions;
+import io.vertx.proton.ProtonConnection;
+import io.vertx.proton.ProtonDelivery;
+
+/**
+ * A single AMQP connection to Hono, with one telemetry or event consumer link
+ * per tenant.
+ * <p>
+ * Each receiver gets its own event loop context, so that multiple receivers
+ * receive and decode messages in parallel. The state of the receiver is only
+ * accessed from this context.
+ * </p>
+ * <p>
+ * For events, the message handler is responsible for settling the delivery.
+ * </p>
+ */
+public class Receiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(Receiver.class);
+
+    private static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 5_000;
+
+    @FunctionalInterface
+    public interface MessageHandler {
+        /**
+         * Handle a message.
+         *
+         * @param link the link which received the message
+         * @param delivery the delivery of the message, {@code null} for
+         *            telemetry messages
+         * @param msg the message
+         */
+        public void handle(TenantLink link, ProtonDelivery delivery, Message msg);
+    }
+
+    private final int id;
+    private final Vertx vertx;
+    private final Context context;
+    private final HonoClientImpl honoClient;
+    private final int credits;
+    private final boolean events;
+    private final MessageHandler handler;
+
+    private final AtomicLong counter = new AtomicLong();
+
+    private final Map<String, TenantLink> links = new HashMap<>();
+    private Set<String> tenants = new HashSet<>();
+    private HonoClient client;
+
+    private volatile int openCount;
+
+    public Receiver(final int id, final Vertx vertx, final ConnectionFactory connectionFactory,
+            final ClientConfigProperties config, final int credits, final boolean events,
+            final MessageHandler handler) {
+
+        this.id = id;
+        this.vertx = vertx;
+        this.credits = credits;
+        this.events = events;
+        this.handler = handler;
+
+        // when called from outside of Vert.x, this creates a new context on the next event loop
+
+        this.context = vertx.getOrCreateContext();
+        this.honoClient = new HonoClientImpl(vertx, connectionFactory, config);
+    }
+
+    /**
+     * Start connecting.
+     *
+     * @param tenants the initial set of tenants
+     * @param startupHandler called once the connection is established, or the
+     *            initial connection failed
+     */
+    public void start(final Set<String> tenants, final Handler<AsyncResult<HonoClient>> startupHandler) {
+        this.context.runOnContext(v -> {
+            this.tenants = new HashSet<>(tenants);
+            this.honoClient
+                    .connect(getOptions(), this::onDisconnect)
+                    .map(this::connected)
+                    .setHandler(startupHandler);
+        });
+    }
+
+    /**
+     * Update the set of tenants, opening and closing links as required.
+     */
+    public void setTenants(final Set<String> tenants) {
+        this.context.runOnContext(v -> {
+            this.tenants = new HashSet<>(tenants);
+
+            for (final String tenant : new ArrayList<>(this.links.keySet())) {
+                if (!this.tenants.contains(tenant)) {
+                    logger.info("Closing link #{} for tenant: {}", this.id, tenant);
+                    final TenantLink link = this.links.remove(tenant);
+                    if (link.isOpen()) {
+                        this.openCount--;
+                    }
+                    link.close();
+                }
+            }
+
+            openLinks();
+        });
+    }
+
+    public void shutdown() {
+        this.honoClient.shutdown(done -> {
+        });
+    }
+
+    private ProtonClientOptions getOptions() {
+        return new ProtonClientOptions();
+    }
+
+    private HonoClient connected(final HonoClient client) {
+        this.client = client;
+        openLinks();
+        return client;
+    }
+
+    private void openLinks() {
+        if (this.client == null) {
+            return;
+        }
+
+        for (final String tenant : this.tenants) {
+            if (!this.links.containsKey(tenant)) {
+                openLink(tenant);
+            }
+        }
+    }
+
+    private void openLink(final String tenant) {
+
+        logger.info("Opening link #{} for tenant: {}", this.id, tenant);
+
+        final TenantLink link = new TenantLink(tenant, this.context, this.credits);
+        this.links.put(tenant, link);
+
+        final Handler<Void> closeHandler = closed -> {
+            logger.info("close handler of event consumer #{} is called, tenant: {}", this.id, tenant);
+            linkLost(link);
+        };
+
+        final Future<MessageConsumer> result;
+        if (this.events) {
+            result = this.client.createEventConsumer(tenant,
+                    (delivery, msg) -> handleMessage(link, delivery, msg), closeHandler);
+        } else {
+            result = this.client.createTelemetryConsumer(tenant,
+                    msg -> handleMessage(link, null, msg), closeHandler);
+        }
+
+        result.setHandler(ready -> {
+            if (ready.failed()) {
+                logger.warn("Failed to open link #{} for tenant: {}", this.id, tenant, ready.cause());
+                linkLost(link);
+            } else if (this.links.get(tenant) != link) {
+                // removed in the meantime
+                link.close();
+            } else {
+                link.opened(ready.result());
+                this.openCount++;
+            }
+        });
+    }
+
+    private void linkLost(final TenantLink link) {
+        if (this.links.get(link.getTenant()) != link) {
+            return;
+        }
+
+        this.links.remove(link.getTenant());
+        if (link.isOpen()) {
+            this.openCount--;
+        }
+
+        this.vertx.setTimer(DEFAULT_CONNECT_TIMEOUT_MILLIS, reconnect -> {
+            logger.info("attempting to re-open the EventConsumer link #{} ...", this.id);
+            openLinks();
+        });
+    }
+
+    private void onDisconnect(final ProtonConnection con) {
+        this.client = null;
+        this.links.clear();
+        this.openCount = 0;
+
+        this.vertx.setTimer(DEFAULT_CONNECT_TIMEOUT_MILLIS, reconnect -> {
+            logger.info("attempting to re-connect #{} to Hono ...", this.id);
+            this.honoClient.connect(getOptions(), this::onDisconnect)
+                    .map(this::connected);
+        });
+    }
+
+    private void handleMessage(final TenantLink link, final ProtonDelivery delivery, final Message msg) {
+        this.counter.incrementAndGet();
+        this.handler.handle(link, delivery, msg);
+    }
+
+    /**
+     * Get and reset the number of received messages.
+     */
+    public long takeCount() {
+        return this.counter.getAndSet(0);
+    }
+
+    /**
+     * Get the number of currently open links.
+     */
+    public int getOpenLinks() {
+        return this.openCount;
+    }
+
+}
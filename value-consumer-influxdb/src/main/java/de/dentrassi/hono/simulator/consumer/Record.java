@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.util.Map;
+
+import org.apache.qpid.proton.amqp.Symbol;
+
+/**
+ * A decoded telemetry message.
+ */
+public class Record {
+
+    private final String tenant;
+    private final String device;
+    private final String key;
+    private final Map<Symbol, Object> annotations;
+    private final long received;
+    private final Fields fields;
+
+    public Record(final String tenant, final String device, final String key,
+            final Map<Symbol, Object> annotations, final long received, final Fields fields) {
+        this.tenant = tenant;
+        this.device = device;
+        this.key = key;
+        this.annotations = annotations;
+        this.received = received;
+        this.fields = fields;
+    }
+
+    public String getTenant() {
+        return this.tenant;
+    }
+
+    /**
+     * Get the device id.
+     *
+     * @return the device id, or an empty string if the message did not carry
+     *         one
+     */
+    public String getDevice() {
+        return this.device;
+    }
+
+    /**
+     * Get the key of the device.
+     *
+     * @return the key, unique across all tenants
+     * @see #key(String, String)
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * Create the key of a device, for looking up per device state.
+     * <p>
+     * Device ids are only unique within a tenant, so the key consists of both.
+     * Messages without a device id share the key of their tenant.
+     * </p>
+     */
+    public static String key(final String tenant, final String device) {
+        return device.isEmpty() ? tenant : tenant + '/' + device;
+    }
+
+    /**
+     * Get the message annotations.
+     *
+     * @return the message annotations, never {@code null}
+     */
+    public Map<Symbol, Object> getAnnotations() {
+        return this.annotations;
+    }
+
+    /**
+     * Get the time the message was received.
+     *
+     * @return the time the message was received, in milliseconds since the
+     *         epoch
+     */
+    public long getReceived() {
+        return this.received;
+    }
+
+    public Fields getFields() {
+        return this.fields;
+    }
+}
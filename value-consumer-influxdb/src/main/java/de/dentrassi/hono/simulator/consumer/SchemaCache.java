@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+
+/**
+ * The learned payload schemas, by device.
+ * <p>
+ * Once the maximum number of schemas is reached, payloads of new devices are
+ * decoded with the generic decoder only.
+ * </p>
+ */
+public class SchemaCache {
+
+    private final Map<String, PayloadSchema> schemas = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+
+    public SchemaCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public PayloadSchema get(final String key) {
+        return this.schemas.get(key);
+    }
+
+    /**
+     * Record the result of extracting a payload with a schema.
+     */
+    public void extracted(final boolean matched) {
+        if (matched) {
+            this.hits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Store the schema of a payload, decoded by the generic decoder.
+     *
+     * @param key the key of the source of the payload
+     * @param schema the schema of the payload
+     */
+    public void learned(final String key, final PayloadSchema schema) {
+        final PayloadSchema previous = this.schemas.get(key);
+
+        if (previous == null) {
+            if (this.schemas.size() < this.maxSize) {
+                this.schemas.put(key, schema);
+            }
+        } else if (!previous.equals(schema)) {
+            this.changes.incrementAndGet();
+            this.schemas.put(key, schema);
+        }
+    }
+
+    /**
+     * Report and reset the counters.
+     *
+     * @param now the timestamp of the report
+     * @param metrics the metrics to report to, may be {@code null}
+     */
+    public void report(final Instant now, final InfluxDbMetrics metrics) {
+        final Map<String, Number> values = new HashMap<>(4);
+
+        values.put("schemas", this.schemas.size());
+        values.put("hits", this.hits.getAndSet(0));
+        values.put("misses", this.misses.getAndSet(0));
+        values.put("changes", this.changes.getAndSet(0));
+
+        System.out.format("%s: Schemas - schemas: %s, hits: %s, misses: %s, changes: %s%n",
+                now, values.get("schemas"), values.get("hits"), values.get("misses"), values.get("changes"));
+
+        if (metrics != null) {
+            metrics.updateStats(now, "consumer-schema", values);
+        }
+    }
+}
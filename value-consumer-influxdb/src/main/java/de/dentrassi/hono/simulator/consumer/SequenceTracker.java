@@ -0,0 +1,353 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import de.dentrassi.hono.demo.common.Counter;
+import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+import de.dentrassi.hono.demo.common.MetricsRegistry;
+
+/**
+ * Detects lost, duplicate and reordered messages, based on the per device
+ * sequence numbers of the simulators.
+ * <p>
+ * For each device the highest sequence number seen so far is tracked, together
+ * with a bitmap of the last 64 sequence numbers. A message is counted as lost
+ * when its sequence number drops out of the window without having been seen.
+ * Messages arriving within the window, after a higher sequence number was
+ * seen, are counted as reordered. Messages arriving even later are counted as
+ * late, but stay counted as lost as well.
+ * </p>
+ * <p>
+ * Devices are spread over a fixed number of stripes, each with a lock of its
+ * own, so that decode threads rarely contend. Each stripe keeps its devices in
+ * an open addressing hash table of primitive arrays, with 36 bytes per slot,
+ * at most half of the slots being used. The tenant and device id strings of
+ * the messages are retained as well, for Java 8 about 40 bytes plus 2 bytes
+ * per character for each device id. Devices which didn't send a message for
+ * the idle timeout get evicted, so churning simulator pods don't grow the
+ * table without bounds.
+ * </p>
+ */
+public class SequenceTracker {
+
+    private static final int WINDOW = Long.SIZE;
+
+    /**
+     * Jumping back further than this is considered a restart of the device.
+     */
+    private static final long RESET_THRESHOLD = 1024;
+
+    private static final int STRIPE_BITS = 6;
+
+    private static final int MIN_CAPACITY = 64;
+
+    private static final class Stripe {
+
+        private String[] tenants;
+        private String[] devices;
+        private long[] last;
+        private long[] seen;
+
+        /**
+         * The epoch of the last message of each device.
+         */
+        private int[] touched;
+
+        private int size;
+        private int mask;
+
+        private long lost;
+        private long duplicates;
+        private long reordered;
+        private long late;
+        private long resets;
+
+        private Stripe() {
+            allocate(MIN_CAPACITY);
+        }
+
+        private void allocate(final int capacity) {
+            this.tenants = new String[capacity];
+            this.devices = new String[capacity];
+            this.last = new long[capacity];
+            this.seen = new long[capacity];
+            this.touched = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private void track(final int hash, final String tenant, final String device, final long sequence,
+                final int epoch) {
+
+            int idx = hash & this.mask;
+
+            while (this.devices[idx] != null) {
+                if (this.devices[idx].equals(device) && this.tenants[idx].equals(tenant)) {
+                    this.touched[idx] = epoch;
+                    update(idx, sequence);
+                    return;
+                }
+                idx = (idx + 1) & this.mask;
+            }
+
+            // first message of this device, history is considered complete
+
+            this.tenants[idx] = tenant;
+            this.devices[idx] = device;
+            this.last[idx] = sequence;
+            this.seen[idx] = -1L;
+            this.touched[idx] = epoch;
+
+            if (++this.size > this.devices.length / 2) {
+                rehash(this.devices.length * 2, epoch, -1);
+            }
+        }
+
+        private void update(final int idx, final long sequence) {
+            final long last = this.last[idx];
+            final long bits = this.seen[idx];
+
+            if (sequence > last) {
+
+                final long gap = sequence - last;
+
+                if (gap >= WINDOW) {
+                    // everything in the window drops out, and nothing in between was seen
+                    this.lost += WINDOW - Long.bitCount(bits) + gap - WINDOW;
+                    this.seen[idx] = 1L;
+                } else {
+                    final int shift = (int) gap;
+                    this.lost += shift - Long.bitCount(bits >>> (WINDOW - shift));
+                    this.seen[idx] = bits << shift | 1L;
+                }
+
+                this.last[idx] = sequence;
+
+            } else {
+
+                final long offset = last - sequence;
+
+                if (offset >= RESET_THRESHOLD || sequence == 0 && last > 0) {
+                    // the device restarted
+                    this.resets++;
+                    this.last[idx] = sequence;
+                    this.seen[idx] = -1L;
+                } else if (offset >= WINDOW) {
+                    // too late, it was already counted as lost
+                    this.late++;
+                } else {
+                    final long bit = 1L << offset;
+                    if ((bits & bit) != 0) {
+                        this.duplicates++;
+                    } else {
+                        this.reordered++;
+                        this.seen[idx] = bits | bit;
+                    }
+                }
+
+            }
+        }
+
+        /**
+         * Evict idle devices.
+         *
+         * @param epoch the current epoch
+         * @param idle the number of epochs after which a device is idle
+         * @return the number of evicted devices
+         */
+        private int evict(final int epoch, final int idle) {
+            int active = 0;
+            for (int i = 0; i < this.devices.length; i++) {
+                if (this.devices[i] != null && epoch - this.touched[i] <= idle) {
+                    active++;
+                }
+            }
+
+            final int evicted = this.size - active;
+            if (evicted <= 0) {
+                return 0;
+            }
+
+            int capacity = MIN_CAPACITY;
+            while (active > capacity / 2) {
+                capacity *= 2;
+            }
+
+            rehash(capacity, epoch, idle);
+            return evicted;
+        }
+
+        /**
+         * Move all devices into a table of a new capacity.
+         *
+         * @param capacity the new capacity, a power of two
+         * @param epoch the current epoch
+         * @param idle the number of epochs after which a device gets dropped,
+         *            negative to keep all devices
+         */
+        private void rehash(final int capacity, final int epoch, final int idle) {
+            final String[] tenants = this.tenants;
+            final String[] devices = this.devices;
+            final long[] last = this.last;
+            final long[] seen = this.seen;
+            final int[] touched = this.touched;
+
+            allocate(capacity);
+            this.size = 0;
+
+            for (int i = 0; i < devices.length; i++) {
+                if (devices[i] == null || idle >= 0 && epoch - touched[i] > idle) {
+                    continue;
+                }
+
+                int idx = hash(tenants[i], devices[i]) & this.mask;
+                while (this.devices[idx] != null) {
+                    idx = (idx + 1) & this.mask;
+                }
+
+                this.tenants[idx] = tenants[i];
+                this.devices[idx] = devices[i];
+                this.last[idx] = last[i];
+                this.seen[idx] = seen[i];
+                this.touched[idx] = touched[i];
+                this.size++;
+            }
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+    private final int idleTimeout;
+    private final long start = System.currentTimeMillis();
+
+    /**
+     * The number of seconds since the tracker was created, updated with each
+     * report.
+     */
+    private volatile int epoch;
+    private int lastEviction;
+
+    private final Counter lostTotal = MetricsRegistry.getDefault()
+            .counter("consumer_sequence_lost_total", "Messages detected as lost");
+    private final Counter duplicatesTotal = MetricsRegistry.getDefault()
+            .counter("consumer_sequence_duplicates_total", "Messages received more than once");
+
+    /**
+     * Create a new tracker.
+     *
+     * @param idleTimeout the time after which a device without messages gets
+     *            evicted, in milliseconds, zero to never evict devices
+     */
+    public SequenceTracker(final long idleTimeout) {
+        this.idleTimeout = (int) Math.min(Integer.MAX_VALUE, TimeUnit.MILLISECONDS.toSeconds(idleTimeout));
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    private static int hash(final String tenant, final String device) {
+        return 31 * tenant.hashCode() + device.hashCode();
+    }
+
+    /**
+     * Track the sequence number of a received message.
+     *
+     * @param tenant the tenant of the device
+     * @param device the device id
+     * @param sequence the sequence number, must not be negative
+     */
+    public void track(final String tenant, final String device, final long sequence) {
+        final int hash = hash(tenant, device);
+
+        // select the stripe by the upper bits, the table of the stripe uses the lower ones
+
+        final Stripe stripe = this.stripes[(hash * 0x9E3779B9) >>> (Integer.SIZE - STRIPE_BITS)];
+
+        synchronized (stripe) {
+            stripe.track(hash, tenant, device, sequence, this.epoch);
+        }
+    }
+
+    /**
+     * Report and reset the counters, and evict idle devices.
+     *
+     * @param now the timestamp of the report
+     * @param metrics the metrics to report to, may be {@code null}
+     */
+    public void report(final Instant now, final InfluxDbMetrics metrics) {
+        final int epoch = (int) TimeUnit.MILLISECONDS.toSeconds(now.toEpochMilli() - this.start);
+        this.epoch = epoch;
+
+        // look for idle devices a few times per timeout
+
+        final boolean evict = this.idleTimeout > 0 && epoch - this.lastEviction >= Math.max(1, this.idleTimeout / 4);
+        if (evict) {
+            this.lastEviction = epoch;
+        }
+
+        long lost = 0;
+        long duplicates = 0;
+        long reordered = 0;
+        long late = 0;
+        long resets = 0;
+        long evicted = 0;
+        long devices = 0;
+
+        for (final Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                lost += stripe.lost;
+                duplicates += stripe.duplicates;
+                reordered += stripe.reordered;
+                late += stripe.late;
+                resets += stripe.resets;
+
+                stripe.lost = 0;
+                stripe.duplicates = 0;
+                stripe.reordered = 0;
+                stripe.late = 0;
+                stripe.resets = 0;
+
+                if (evict) {
+                    evicted += stripe.evict(epoch, this.idleTimeout);
+                }
+
+                devices += stripe.size;
+            }
+        }
+
+        if (devices == 0 && evicted == 0) {
+            return;
+        }
+
+        this.lostTotal.add(lost);
+        this.duplicatesTotal.add(duplicates);
+
+        System.out.format(
+                "%s: Sequence - lost: %s, duplicates: %s, reordered: %s, late: %s, devices: %s, evicted: %s%n",
+                now, lost, duplicates, reordered, late, devices, evicted);
+
+        if (metrics != null) {
+            final Map<String, Number> values = new HashMap<>(8);
+            values.put("lost", lost);
+            values.put("duplicates", duplicates);
+            values.put("reordered", reordered);
+            values.put("late", late);
+            values.put("resets", resets);
+            values.put("devices", devices);
+            values.put("evicted", evicted);
+            metrics.updateStats(now, "consumer-sequence", values);
+        }
+    }
+}
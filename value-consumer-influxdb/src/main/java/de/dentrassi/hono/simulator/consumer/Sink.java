@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+
+/**
+ * A sink for decoded telemetry messages.
+ * <p>
+ * Records are handed over in batches. A sink may buffer records internally,
+ * but must hand them on when {@link #flush()} gets called. Sinks must be
+ * thread safe, as they may get called from different event loops.
+ * </p>
+ */
+public interface Sink extends AutoCloseable {
+
+    /**
+     * Accept a batch of records.
+     *
+     * @param records the records, the list must not be retained after the
+     *            call returns
+     */
+    void accept(List<Record> records);
+
+    /**
+     * Flush all buffered records.
+     *
+     * @return a future, completing once all records accepted before the call
+     *         have been stored
+     */
+    CompletableFuture<Void> flush();
+
+    /**
+     * Report and reset the stats of the sink.
+     *
+     * @param now the timestamp of the report
+     * @param metrics the metrics to report to, may be {@code null}
+     */
+    default void report(final Instant now, final InfluxDbMetrics metrics) {
+    }
+
+    @Override
+    void close();
+
+}
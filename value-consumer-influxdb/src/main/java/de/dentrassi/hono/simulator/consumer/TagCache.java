@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.qpid.proton.amqp.Symbol;
+
+/**
+ * A bounded LRU cache of escaped line protocol tag sets, keyed by tenant and
+ * device.
+ * <p>
+ * The tags of a device are derived from the string values of the message
+ * annotations. A cached entry is only used when the annotations still carry
+ * the same values, so a device changing its tags gets a new entry.
+ * </p>
+ * <p>
+ * With a {@link CardinalityGuard}, annotations may be stored as string fields
+ * instead, or get dropped. Entries are re-created when the guard blocks
+ * another key.
+ * </p>
+ */
+public class TagCache {
+
+    /**
+     * The tags of a device.
+     */
+    public static final class Tags {
+        private final Symbol[] keys;
+        private final String[] values;
+        private final Map<String, String> tags;
+        private final String tagSet;
+        private final String fields;
+        private final int generation;
+
+        private Tags(final Symbol[] keys, final String[] values, final Map<String, String> tags,
+                final String fields, final int generation) {
+            this.keys = keys;
+            this.values = values;
+            this.tags = tags;
+            this.tagSet = LineProtocol.tagSet(tags);
+            this.fields = fields;
+            this.generation = generation;
+        }
+
+        /**
+         * Get the escaped tag set.
+         *
+         * @return the tag set, starting with a comma, or an empty string if
+         *         there are no tags
+         */
+        public String getTagSet() {
+            return this.tagSet;
+        }
+
+        /**
+         * Get the annotations which got demoted to fields.
+         *
+         * @return the escaped string fields, separated by commas, or an empty
+         *         string if there are none
+         */
+        public String getFields() {
+            return this.fields;
+        }
+
+        private boolean matches(final Map<Symbol, ?> annotations) {
+            int found = 0;
+
+            for (final Map.Entry<Symbol, ?> entry : annotations.entrySet()) {
+                final Object value = entry.getValue();
+                if (!(value instanceof String)) {
+                    continue;
+                }
+
+                final int idx = indexOf(entry.getKey());
+                if (idx < 0 || !this.values[idx].equals(value)) {
+                    return false;
+                }
+                found++;
+            }
+
+            return found == this.keys.length;
+        }
+
+        private int indexOf(final Symbol key) {
+            for (int i = 0; i < this.keys.length; i++) {
+                if (this.keys[i] == key || this.keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final Map<String, Tags> cache;
+
+    private final CardinalityGuard guard;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public TagCache(final int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxSize the maximum number of devices
+     * @param guard the cardinality guard, may be {@code null}
+     */
+    public TagCache(final int maxSize, final CardinalityGuard guard) {
+        this.guard = guard;
+        this.cache = new LinkedHashMap<String, Tags>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, Tags> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the escaped tag set for a device.
+     *
+     * @param device the device key, unique across tenants, see
+     *            {@link Record#key(String, String)}
+     * @param annotations the message annotations
+     * @return the tag set, starting with a comma, or an empty string if there
+     *         are no tags
+     */
+    public String tagSet(final String device, final Map<Symbol, ?> annotations) {
+        return lookup(device, annotations).tagSet;
+    }
+
+    /**
+     * Get the tags of a device.
+     *
+     * @param device the device key, unique across tenants, see
+     *            {@link Record#key(String, String)}
+     * @param annotations the message annotations
+     * @return the tags, never {@code null}
+     */
+    public Tags lookup(final String device, final Map<Symbol, ?> annotations) {
+        final int generation = this.guard != null ? this.guard.getGeneration() : 0;
+
+        synchronized (this.cache) {
+            final Tags entry = this.cache.get(device);
+            if (entry != null && entry.generation == generation && entry.matches(annotations)) {
+                this.hits.incrementAndGet();
+                return entry;
+            }
+        }
+
+        this.misses.incrementAndGet();
+
+        final Tags entry = create(annotations, generation);
+
+        synchronized (this.cache) {
+            this.cache.put(device, entry);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Get the tags of a device.
+     *
+     * @param device the device key, unique across tenants, see
+     *            {@link Record#key(String, String)}
+     * @param annotations the message annotations
+     * @return the tags, must not be modified
+     */
+    public Map<String, String> tags(final String device, final Map<Symbol, ?> annotations) {
+        return lookup(device, annotations).tags;
+    }
+
+    private Tags create(final Map<Symbol, ?> annotations, final int generation) {
+        final Map<String, String> tags = new HashMap<>(annotations.size());
+        final StringBuilder fields = new StringBuilder();
+
+        int size = 0;
+        for (final Object value : annotations.values()) {
+            if (value instanceof String) {
+                size++;
+            }
+        }
+
+        final Symbol[] keys = new Symbol[size];
+        final String[] values = new String[size];
+
+        int i = 0;
+        for (final Map.Entry<Symbol, ?> entry : annotations.entrySet()) {
+            if (entry.getValue() instanceof String) {
+                keys[i] = entry.getKey();
+                values[i] = (String) entry.getValue();
+                add(keys[i].toString(), values[i], tags, fields);
+                i++;
+            }
+        }
+
+        return new Tags(keys, values, tags, fields.toString(), generation);
+    }
+
+    private void add(final String key, final String value, final Map<String, String> tags,
+            final StringBuilder fields) {
+
+        final CardinalityGuard.Decision decision = this.guard != null ? this.guard.check(key, value)
+                : CardinalityGuard.Decision.TAG;
+
+        switch (decision) {
+        case TAG:
+            tags.put(key, value);
+            break;
+        case FIELD:
+            LineProtocol.appendField(fields, fields.length() == 0, key, value);
+            break;
+        default:
+            break;
+        }
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.hono.client.MessageConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.vertx.core.Context;
+import io.vertx.proton.ProtonDelivery;
+import io.vertx.proton.ProtonHelper;
+
+/**
+ * The consumer link of one tenant, on one connection.
+ * <p>
+ * With a credit budget, the link starts with the full budget of credits, and
+ * credits only get replenished once messages have been processed. So the
+ * number of received, but not yet processed, messages of a tenant is limited
+ * by its budget. Without a budget, the link is using the prefetch of the Hono
+ * client.
+ * </p>
+ */
+public class TenantLink {
+
+    private static final Logger logger = LoggerFactory.getLogger(TenantLink.class);
+
+    private final String tenant;
+    private final Context context;
+    private final int credits;
+
+    private final AtomicInteger processed = new AtomicInteger();
+
+    private volatile MessageConsumer consumer;
+
+    public TenantLink(final String tenant, final Context context, final int credits) {
+        this.tenant = tenant;
+        this.context = context;
+        this.credits = credits;
+    }
+
+    public String getTenant() {
+        return this.tenant;
+    }
+
+    boolean isOpen() {
+        return this.consumer != null;
+    }
+
+    void opened(final MessageConsumer consumer) {
+        this.consumer = consumer;
+        if (this.credits > 0) {
+            consumer.flow(this.credits);
+        }
+    }
+
+    /**
+     * Mark a message of this link as processed.
+     * <p>
+     * This may be called from any thread. Credits are replenished in chunks of
+     * half the budget, on the context of the connection.
+     * </p>
+     */
+    public void processed() {
+        processed(1);
+    }
+
+    private void processed(final int count) {
+        if (this.credits <= 0) {
+            return;
+        }
+
+        if (this.processed.addAndGet(count) < Math.max(1, this.credits / 2)) {
+            return;
+        }
+
+        final int credits = this.processed.getAndSet(0);
+        final MessageConsumer consumer = this.consumer;
+
+        if (credits <= 0 || consumer == null) {
+            return;
+        }
+
+        this.context.runOnContext(v -> {
+            try {
+                consumer.flow(credits);
+            } catch (final Exception e) {
+                // the link got closed in the meantime, a new link starts with a new budget
+                logger.debug("Failed to replenish credits of tenant {}", this.tenant, e);
+            }
+        });
+    }
+
+    /**
+     * Settle deliveries of this link.
+     * <p>
+     * This may be called from any thread. The deliveries get settled on the
+     * context of the connection, and count as processed afterwards.
+     * </p>
+     *
+     * @param deliveries the deliveries to settle
+     * @param accept {@code true} to accept the deliveries, {@code false} to
+     *            release them for re-delivery
+     * @param settled called on the context of the connection, once the
+     *            deliveries are settled
+     */
+    public void settle(final List<ProtonDelivery> deliveries, final boolean accept, final Runnable settled) {
+        this.context.runOnContext(v -> {
+            try {
+                for (final ProtonDelivery delivery : deliveries) {
+                    if (accept) {
+                        ProtonHelper.accepted(delivery, true);
+                    } else {
+                        ProtonHelper.released(delivery, true);
+                    }
+                }
+            } catch (final Exception e) {
+                // the link got closed in the meantime, the deliveries will be re-delivered
+                logger.debug("Failed to settle deliveries of tenant {}", this.tenant, e);
+            } finally {
+                settled.run();
+            }
+            processed(deliveries.size());
+        });
+    }
+
+    void close() {
+        final MessageConsumer consumer = this.consumer;
+        this.consumer = null;
+        if (consumer != null) {
+            consumer.close(done -> {
+            });
+        }
+    }
+
+}
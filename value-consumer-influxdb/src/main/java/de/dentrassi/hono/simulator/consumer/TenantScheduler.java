@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import static java.util.Collections.singletonMap;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.dentrassi.hono.demo.common.InfluxDbMetrics;
+
+/**
+ * Schedules the processing of messages fairly between tenants.
+ * <p>
+ * Each tenant has a queue of its own. Worker threads serve the tenants with
+ * pending messages in a round robin fashion, processing up to a fixed number
+ * of messages of a tenant before moving on to the next. So a tenant sending a
+ * lot of messages does not delay the messages of the other tenants.
+ * </p>
+ * <p>
+ * Without worker threads, messages are processed on the calling thread.
+ * </p>
+ */
+public class TenantScheduler implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TenantScheduler.class);
+
+    private static final int QUANTUM = 16;
+
+    private static final class Task {
+        private final Runnable runnable;
+        private final long queued;
+
+        private Task(final Runnable runnable, final long queued) {
+            this.runnable = runnable;
+            this.queued = queued;
+        }
+    }
+
+    private static final class TenantQueue {
+        private final String tenant;
+        private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong maxWait = new AtomicLong();
+
+        private TenantQueue(final String tenant) {
+            this.tenant = tenant;
+        }
+
+        private void waited(final long nanos) {
+            long current;
+            while (nanos > (current = this.maxWait.get())) {
+                if (this.maxWait.compareAndSet(current, nanos)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private final Map<String, TenantQueue> tenants = new ConcurrentHashMap<>();
+
+    private final BlockingQueue<TenantQueue> ready = new LinkedBlockingQueue<>();
+
+    private final Thread[] workers;
+
+    private volatile boolean running = true;
+
+    public TenantScheduler(final int threads) {
+        this.workers = new Thread[threads];
+
+        for (int i = 0; i < threads; i++) {
+            this.workers[i] = new Thread(this::work, "tenant-worker-" + i);
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Submit a message for processing.
+     *
+     * @param tenant the tenant of the message
+     * @param task the processing of the message
+     */
+    public void submit(final String tenant, final Runnable task) {
+        final TenantQueue queue = this.tenants.computeIfAbsent(tenant, TenantQueue::new);
+
+        if (this.workers.length == 0) {
+            run(queue, task);
+            return;
+        }
+
+        queue.tasks.add(new Task(task, System.nanoTime()));
+        queue.size.incrementAndGet();
+
+        if (queue.scheduled.compareAndSet(false, true)) {
+            this.ready.add(queue);
+        }
+    }
+
+    private void work() {
+        while (this.running) {
+            final TenantQueue queue;
+            try {
+                queue = this.ready.take();
+            } catch (final InterruptedException e) {
+                return;
+            }
+
+            for (int i = 0; i < QUANTUM; i++) {
+                final Task task = queue.tasks.poll();
+                if (task == null) {
+                    break;
+                }
+                queue.size.decrementAndGet();
+                queue.waited(System.nanoTime() - task.queued);
+                run(queue, task.runnable);
+            }
+
+            if (!queue.tasks.isEmpty()) {
+                // more work left, go to the end of the line
+                this.ready.add(queue);
+                continue;
+            }
+
+            queue.scheduled.set(false);
+
+            // re-check for a task which got added while we released the queue
+
+            if (!queue.tasks.isEmpty() && queue.scheduled.compareAndSet(false, true)) {
+                this.ready.add(queue);
+            }
+        }
+    }
+
+    private static void run(final TenantQueue queue, final Runnable task) {
+        try {
+            task.run();
+        } catch (final Exception e) {
+            logger.warn("Failed to process message of tenant {}", queue.tenant, e);
+        }
+        queue.processed.incrementAndGet();
+    }
+
+    /**
+     * Report and reset the per tenant stats.
+     *
+     * @param now the timestamp of the report
+     * @param metrics the metrics to report to, may be {@code null}
+     */
+    public void report(final Instant now, final InfluxDbMetrics metrics) {
+        if (metrics == null) {
+            return;
+        }
+
+        for (final TenantQueue queue : this.tenants.values()) {
+            final Map<String, Number> values = new HashMap<>(4);
+
+            values.put("messageCount", queue.processed.getAndSet(0));
+            values.put("queued", queue.size.get());
+            values.put("maxWait", queue.maxWait.getAndSet(0) / 1_000_000);
+
+            metrics.updateStats(now, "consumer-tenant", singletonMap("tenant", queue.tenant), values);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        for (final Thread worker : this.workers) {
+            worker.interrupt();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.dentrassi.hono.demo.common.Config;
+
+/**
+ * The tenants to consume.
+ * <p>
+ * Tenants are either provided as a comma separated list, or read from a file
+ * with one tenant per line. Empty lines and lines starting with {@code #} are
+ * ignored.
+ * </p>
+ */
+public class TenantSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(TenantSource.class);
+
+    private final Set<String> tenants;
+    private final Path file;
+
+    private Set<String> last = Collections.emptySet();
+
+    public TenantSource(final String tenants, final Path file) {
+        this.tenants = Config.parseSet(tenants);
+        this.file = file;
+    }
+
+    public boolean isDynamic() {
+        return this.file != null;
+    }
+
+    /**
+     * Load the current set of tenants.
+     * <p>
+     * If reading the file fails, the last known set of tenants is returned.
+     * </p>
+     *
+     * @return the set of tenants, never {@code null}
+     */
+    public Set<String> load() {
+        if (this.file == null) {
+            return this.tenants;
+        }
+
+        try {
+            final Set<String> result = new LinkedHashSet<>(this.tenants);
+            for (String line : Files.readAllLines(this.file, StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    result.add(line);
+                }
+            }
+            this.last = result;
+        } catch (final IOException e) {
+            logger.warn("Failed to read tenants from: {}", this.file, e);
+        }
+
+        return this.last;
+    }
+}
@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fallback decoder, treating the payload as text containing a single number.
+ * <p>
+ * The number is reported as field {@code value}.
+ * </p>
+ */
+public class TextPayloadDecoder implements PayloadDecoder {
+
+    @Override
+    public boolean decode(final String key, final byte[] data, final int offset, final int length,
+            final FieldVisitor visitor) {
+        return decode(key, new String(data, offset, length, StandardCharsets.UTF_8), visitor);
+    }
+
+    @Override
+    public boolean decode(final String key, final String data, final FieldVisitor visitor) {
+        if (!Numbers.isNumber(data)) {
+            return false;
+        }
+
+        try {
+            visitor.field("value", Double.parseDouble(data.trim()));
+            return true;
+        } catch (final NumberFormatException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Pre-aggregates samples per device and field in tumbling windows.
+ * <p>
+ * For each window the mean value of a field is emitted to the measurement
+ * {@code P}, using the original field name, so that existing queries keep
+ * working. The full set of aggregates (min, max, mean, count, last) is emitted
+ * to the measurement {@code P_window}.
+ * </p>
+ */
+public class WindowAggregator implements AutoCloseable {
+
+    private static final int MIN = 0;
+    private static final int MAX = 1;
+    private static final int SUM = 2;
+    private static final int LAST = 3;
+    private static final int COUNT = 4;
+    private static final int STRIDE = 5;
+
+    /**
+     * Number of empty windows after which a device series gets evicted.
+     */
+    private static final int MAX_IDLE_WINDOWS = 10;
+
+    /**
+     * The state of a single device.
+     * <p>
+     * All accumulators of a device are kept in a single, flat array of
+     * primitives, with a fixed stride per field.
+     * </p>
+     */
+    static final class Series {
+
+        private final String tagSet;
+
+        private final Map<String, Integer> fields = new HashMap<>();
+        private String[] names = new String[4];
+        private boolean[] integers = new boolean[4];
+        private double[] values = new double[4 * STRIDE];
+
+        /**
+         * The start of the window the accumulators belong to.
+         */
+        private long start;
+        private int samples;
+
+        private int idle;
+        private boolean retired;
+
+        Series(final String tagSet) {
+            this.tagSet = tagSet;
+        }
+
+        synchronized boolean add(final String field, final double value, final boolean integer,
+                final long windowStart, final Consumer<String> emitter) {
+            if (this.retired) {
+                return false;
+            }
+
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                // cannot be written anyway
+                return true;
+            }
+
+            if (this.samples > 0 && this.start != windowStart) {
+                // the window ended, but the scheduled flush did not get to this series yet
+                emit(emitter);
+            }
+            if (this.samples == 0) {
+                this.start = windowStart;
+            }
+            this.samples++;
+
+            final int offset = offset(field, integer);
+
+            if (this.values[offset + COUNT] == 0) {
+                this.values[offset + MIN] = value;
+                this.values[offset + MAX] = value;
+            } else {
+                if (value < this.values[offset + MIN]) {
+                    this.values[offset + MIN] = value;
+                }
+                if (value > this.values[offset + MAX]) {
+                    this.values[offset + MAX] = value;
+                }
+            }
+
+            this.values[offset + SUM] += value;
+            this.values[offset + LAST] = value;
+            this.values[offset + COUNT]++;
+
+            return true;
+        }
+
+        private int offset(final String field, final boolean integer) {
+            final Integer idx = this.fields.get(field);
+            if (idx != null) {
+                return idx * STRIDE;
+            }
+
+            final int next = this.fields.size();
+            if (next == this.names.length) {
+                this.names = Arrays.copyOf(this.names, next * 2);
+                this.integers = Arrays.copyOf(this.integers, next * 2);
+                this.values = Arrays.copyOf(this.values, next * 2 * STRIDE);
+            }
+
+            // the type of a field is fixed by its first sample, InfluxDB doesn't allow changing it
+            this.names[next] = field;
+            this.integers[next] = integer;
+            this.fields.put(field, next);
+
+            return next * STRIDE;
+        }
+
+        /**
+         * Emit the current window, if it started before the provided window,
+         * and reset all accumulators.
+         *
+         * @param current the start of the window which is still open, windows
+         *            starting at or after this time are kept
+         * @return {@code false} if the series was idle for too long and got
+         *         retired, {@code true} otherwise
+         */
+        synchronized boolean drain(final long current, final Consumer<String> emitter) {
+
+            if (this.samples == 0) {
+                if (++this.idle >= MAX_IDLE_WINDOWS) {
+                    this.retired = true;
+                    return false;
+                }
+                return true;
+            }
+
+            if (this.start < current) {
+                this.idle = 0;
+                emit(emitter);
+            }
+
+            return true;
+        }
+
+        private void emit(final Consumer<String> emitter) {
+
+            StringBuilder mean = null;
+            StringBuilder window = null;
+
+            final int size = this.fields.size();
+            for (int i = 0; i < size; i++) {
+                final int offset = i * STRIDE;
+                final double count = this.values[offset + COUNT];
+                if (count == 0) {
+                    continue;
+                }
+
+                final boolean first = mean == null;
+                if (first) {
+                    mean = new StringBuilder(128).append("P").append(this.tagSet).append(' ');
+                    window = new StringBuilder(512).append("P_window").append(this.tagSet).append(' ');
+                }
+
+                final String name = this.names[i];
+                final double avg = this.values[offset + SUM] / count;
+
+                if (this.integers[i]) {
+                    // keep the field type of raw points in "P"
+                    LineProtocol.appendField(mean, first, name, Math.round(avg));
+
+                    LineProtocol.appendField(window, first, name + "_min", (long) this.values[offset + MIN]);
+                    LineProtocol.appendField(window, false, name + "_max", (long) this.values[offset + MAX]);
+                    LineProtocol.appendField(window, false, name + "_mean", avg);
+                    LineProtocol.appendField(window, false, name + "_last", (long) this.values[offset + LAST]);
+                } else {
+                    LineProtocol.appendField(mean, first, name, avg);
+
+                    LineProtocol.appendField(window, first, name + "_min", this.values[offset + MIN]);
+                    LineProtocol.appendField(window, false, name + "_max", this.values[offset + MAX]);
+                    LineProtocol.appendField(window, false, name + "_mean", avg);
+                    LineProtocol.appendField(window, false, name + "_last", this.values[offset + LAST]);
+                }
+                LineProtocol.appendField(window, false, name + "_count", (long) count);
+            }
+
+            this.samples = 0;
+            Arrays.fill(this.values, 0, size * STRIDE, 0.0);
+
+            if (mean == null) {
+                return;
+            }
+
+            LineProtocol.appendTimestamp(mean, this.start);
+            LineProtocol.appendTimestamp(window, this.start);
+
+            emitter.accept(mean.toString());
+            emitter.accept(window.toString());
+        }
+    }
+
+    private final long window;
+    private final Consumer<String> emitter;
+    private final Consumer<String> counting;
+
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong emitted = new AtomicLong();
+
+    public WindowAggregator(final long window, final Consumer<String> emitter) {
+        this.window = window;
+        this.emitter = emitter;
+        this.counting = line -> {
+            this.emitted.incrementAndGet();
+            this.emitter.accept(line);
+        };
+
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread t = new Thread(r, "window-aggregator");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // align the windows to the wall clock
+
+        final long now = System.currentTimeMillis();
+        final long initialDelay = window - now % window;
+
+        this.executor.scheduleAtFixedRate(() -> flush(windowStart()), initialDelay, window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the scheduled flushes and emit all windows, including the partial
+     * ones, each with its own start time.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        try {
+            // don't race with a flush which is still in progress
+            this.executor.awaitTermination(this.window, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush(Long.MAX_VALUE);
+    }
+
+    /**
+     * Get the number of lines emitted so far.
+     *
+     * @return the number of lines emitted
+     */
+    public long getEmitted() {
+        return this.emitted.get();
+    }
+
+    /**
+     * Add a value to the current window of a device.
+     *
+     * @param device the device key
+     * @param tagSet the escaped tag set of the device, only used when the
+     *            device is seen the first time
+     * @param field the field name
+     * @param value the value
+     * @param integer whether the field is an integer field
+     */
+    public void add(final String device, final String tagSet, final String field, final double value,
+            final boolean integer) {
+        final long windowStart = windowStart();
+        while (!this.series.computeIfAbsent(device, x -> new Series(tagSet)).add(field, value, integer,
+                windowStart, this.counting)) {
+            // the series got retired in the meantime, remove it and try again
+            this.series.computeIfPresent(device, (k, v) -> v.retired ? null : v);
+        }
+    }
+
+    private long windowStart() {
+        return System.currentTimeMillis() / this.window * this.window;
+    }
+
+    private void flush(final long current) {
+        for (final Map.Entry<String, Series> entry : this.series.entrySet()) {
+            if (!entry.getValue().drain(current, this.counting)) {
+                this.series.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BitWriterTest {
+
+    private static byte[] toBytes(final BitWriter writer) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writer.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static long mask(final int bits) {
+        return bits == Long.SIZE ? -1L : (1L << bits) - 1;
+    }
+
+    @Test
+    public void testLength() throws IOException {
+        final BitWriter writer = new BitWriter(0);
+        assertEquals(0, writer.length());
+
+        writer.write(true);
+        assertEquals(1, writer.length());
+
+        writer.write(0, 7);
+        assertEquals(1, writer.length());
+
+        writer.write(false);
+        assertEquals(2, writer.length());
+
+        assertArrayEquals(new byte[] { (byte) 0x80, 0x00 }, toBytes(writer));
+    }
+
+    @Test
+    public void testMostSignificantBitFirst() throws IOException {
+        final BitWriter writer = new BitWriter(8);
+        writer.write(0b101, 3);
+        writer.write(0xFF, 4); // only the lowest bits get written
+        writer.write(true);
+        writer.write(0xABCD, 16);
+
+        assertArrayEquals(new byte[] { (byte) 0b1011_1111, (byte) 0xAB, (byte) 0xCD }, toBytes(writer));
+    }
+
+    @Test
+    public void testFullWidth() throws IOException {
+        final long[] values = { 0, -1L, Long.MIN_VALUE, Long.MAX_VALUE, 0x0123_4567_89AB_CDEFL };
+
+        final BitWriter writer = new BitWriter(8);
+        writer.write(true); // unaligned
+        for (final long value : values) {
+            writer.write(value, 64);
+        }
+
+        final BitReader reader = new BitReader(toBytes(writer), 0);
+        assertEquals(true, reader.read());
+        for (final long value : values) {
+            assertEquals(value, reader.read(64));
+        }
+    }
+
+    @Test
+    public void testZeroBits() throws IOException {
+        final BitWriter writer = new BitWriter(8);
+        writer.write(-1L, 0);
+        assertEquals(0, writer.length());
+
+        writer.write(0b11, 2);
+        writer.write(-1L, 0);
+        writer.write(0b01, 2);
+
+        final BitReader reader = new BitReader(toBytes(writer), 0);
+        assertEquals(0b11, reader.read(2));
+        assertEquals(0, reader.read(0));
+        assertEquals(0b01, reader.read(2));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Random random = new Random(42);
+
+        final int count = 10_000;
+        final int[] widths = new int[count];
+        final long[] values = new long[count];
+
+        // start small, so that the buffer has to grow
+
+        final BitWriter writer = new BitWriter(8);
+        for (int i = 0; i < count; i++) {
+            widths[i] = random.nextInt(Long.SIZE + 1);
+            values[i] = random.nextLong();
+            if (widths[i] == 1 && random.nextBoolean()) {
+                writer.write((values[i] & 1) != 0);
+            } else {
+                writer.write(values[i], widths[i]);
+            }
+        }
+
+        final BitReader reader = new BitReader(toBytes(writer), 0);
+        for (int i = 0; i < count; i++) {
+            assertEquals("Value #" + i, values[i] & mask(widths[i]), reader.read(widths[i]));
+        }
+    }
+
+    @Test
+    public void testOffset() throws IOException {
+        final BitWriter writer = new BitWriter(8);
+        writer.write(0x5A5, 12);
+
+        final byte[] data = toBytes(writer);
+        final byte[] shifted = new byte[data.length + 3];
+        System.arraycopy(data, 0, shifted, 3, data.length);
+
+        final BitReader reader = new BitReader(shifted, 3);
+        assertEquals(0x5A5, reader.read(12));
+    }
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2017 Red Hat Inc and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jens Reimann - initial API and implementation
+ *******************************************************************************/
+package de.dentrassi.hono.simulator.consumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GorillaBlockTest {
+
+    private static final long START = 1_500_000_000_000L;
+
+    private static final String[] NAMES = { "power", "current" };
+
+    private static final class Point {
+
+        private final long timestamp;
+        private final double[] values;
+
+        private Point(final long timestamp, final double... values) {
+            this.timestamp = timestamp;
+            this.values = values;
+        }
+    }
+
+    private static Fields fields(final double... values) {
+        final Fields result = new Fields();
+        for (int i = 0; i < values.length; i++) {
+            result.field(NAMES[i], values[i]);
+        }
+        return result;
+    }
+
+    private static GorillaBlock encode(final List<Point> points) {
+        final GorillaBlock block = new GorillaBlock("tenant", "device", fields(points.get(0).values));
+        for (final Point point : points) {
+            block.add(point.timestamp, fields(point.values));
+        }
+        return block;
+    }
+
+    private static List<Point> decode(final GorillaBlock block, final long from, final long to) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        block.writeTo(new DataOutputStream(bytes));
+
+        final List<Point> result = new ArrayList<>();
+        ArchiveReader.readBlock(bytes.toByteArray(), from, to, (tenant, device, timestamp, names, values) -> {
+            assertEquals("tenant", tenant);
+            assertEquals("device", device);
+            assertArrayEquals(NAMES, names);
+            result.add(new Point(timestamp, values.clone()));
+        });
+        return result;
+    }
+
+    private static void assertRoundTrip(final List<Point> points) throws IOException {
+        final GorillaBlock block = encode(points);
+        assertEquals(points.size(), block.getCount());
+        assertEquals(points.get(0).timestamp, block.getFirstTimestamp());
+        assertEquals(points.get(points.size() - 1).timestamp, block.getLastTimestamp());
+
+        final List<Point> result = decode(block, Long.MIN_VALUE, Long.MAX_VALUE);
+
+        assertEquals(points.size(), result.size());
+        for (int i = 0; i < points.size(); i++) {
+            final Point expected = points.get(i);
+            final Point actual = result.get(i);
+            assertEquals("Timestamp #" + i, expected.timestamp, actual.timestamp);
+            for (int j = 0; j < expected.values.length; j++) {
+                // compare the bits, so that NaN and negative zero are exact
+                assertEquals(String.format("Value #%s/%s", i, j),
+                        Double.doubleToRawLongBits(expected.values[j]),
+                        Double.doubleToRawLongBits(actual.values[j]));
+            }
+        }
+    }
+
+    @Test
+    public void testSinglePoint() throws IOException {
+        final List<Point> points = new ArrayList<>();
+        points.add(new Point(START, 1.5, -2.5));
+        assertRoundTrip(points);
+    }
+
+    @Test
+    public void testDeltaOfDeltaEdges() throws IOException {
+
+        // the boundaries of each bucket, and the first values outside of them
+
+        final long[] dods = { 0, 1, -1, 63, -64, 64, -65, 255, -256, 256, -257, 2047, -2048, 2048, -2049,
+                1L << 40, -(1L << 40), 0, 0 };
+
+        final List<Point> points = new ArrayList<>();
+        long timestamp = START;
+        long delta = 1000;
+
+        points.add(new Point(timestamp, 1, 1));
+        timestamp += delta;
+        points.add(new Point(timestamp, 1, 1));
+
+        for (final long dod : dods) {
+            delta += dod;
+            timestamp += delta;
+            points.add(new Point(timestamp, 1, 1));
+        }
+
+        assertRoundTrip(points);
+    }
+
+    @Test
+    public void testIrregularTimestamps() throws IOException {
+        final List<Point> points = new ArrayList<>();
+        points.add(new Point(START, 0, 0));
+        points.add(new Point(START, 0, 0)); // same timestamp
+        points.add(new Point(START - 5_000, 0, 0)); // going back
+        points.add(new Point(Long.MAX_VALUE, 0, 0));
+        points.add(new Point(Long.MIN_VALUE, 0, 0));
+        points.add(new Point(0, 0, 0));
+        assertRoundTrip(points);
+    }
+
+    @Test
+    public void testIdenticalValues() throws IOException {
+        final List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            points.add(new Point(START + i * 1000, 230.5, -0.25));
+        }
+        assertRoundTrip(points);
+
+        // timestamps: 64 bits, 4 + 12 bits for the first delta, one bit for each unchanged delta
+        // values: 64 bits, one bit for each repeated value
+
+        final int timestamps = (64 + 16 + 98 + 7) / 8;
+        final int values = (64 + 99 + 7) / 8;
+        assertEquals(timestamps + 2 * values, encode(points).size());
+    }
+
+    @Test
+    public void testSpecialValues() throws IOException {
+        final double[] values = { 1.0, -1.0, 0.0, -0.0, Double.NaN, Double.NaN,
+                Double.longBitsToDouble(0x7FF8_0000_0000_0001L), // NaN with payload
+                Double.longBitsToDouble(0xFFF8_0000_0000_0000L), // negative NaN
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MIN_VALUE,
+                Double.MAX_VALUE, -Double.MAX_VALUE, Double.MIN_NORMAL, 1.0, -123.456 };
+
+        final List<Point> points = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            points.add(new Point(START + i * 1000, values[i], -values[values.length - 1 - i]));
+        }
+        assertRoundTrip(points);
+    }
+
+    @Test
+    public void testMeaningfulBitWindows() throws IOException {
+
+        // xor values with all kinds of leading and trailing zeros, reusing the previous window or not
+
+        final List<Point> points = new ArrayList<>();
+        long bits = 0;
+        for (int i = 0; i < 64; i++) {
+            bits ^= 1L << i;
+            points.add(new Point(START + i, Double.longBitsToDouble(bits), Double.longBitsToDouble(1L << (63 - i))));
+        }
+        assertRoundTrip(points);
+    }
+
+    @Test
+    public void testRandomValues() throws IOException {
+        final Random random = new Random(42);
+
+        final List<Point> points = new ArrayList<>();
+        long timestamp = START;
+        double value = 230;
+        for (int i = 0; i < 10_000; i++) {
+            timestamp += 900 + random.nextInt(200);
+            value += random.nextGaussian();
+            points.add(new Point(timestamp, value, random.nextBoolean() ? value : random.nextDouble()));
+        }
+        assertRoundTrip(points);
+    }
+
+    @Test
+    public void testTimeRange() throws IOException {
+        final List<Point> points = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            points.add(new Point(START + i * 1000, i, -i));
+        }
+
+        final List<Point> result = decode(encode(points), START + 2000, START + 4000);
+
+        assertEquals(3, result.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(START + (i + 2) * 1000, result.get(i).timestamp);
+            assertEquals(i + 2, result.get(i).values[0], 0);
+            assertEquals(-(i + 2), result.get(i).values[1], 0);
+        }
+    }
+}